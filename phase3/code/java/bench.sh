@@ -0,0 +1,12 @@
+#! /bin/bash
+# Benchmarks the data access methods at 1x, 10x and 100x the sample data on
+# a throwaway cluster started by the scripts of ../postgresql.
+# Example: source ./bench.sh
+# Extra arguments are passed to Benchmark, e.g. -only "^[6-9]|^10"
+# Phase lengths in seconds: JAVA_OPTS="-Dmechanicshop.bench.time=30"
+(cd ../postgresql && bash ./startPostgreSQL.sh && bash ./createPostgreDB.sh)
+bash ./compile.sh
+for SCALE in 1 10 100; do
+	java $JAVA_OPTS -cp "lib/*:bin/" Benchmark $LOGNAME"_DB" 5432 $LOGNAME -load ../data -scale $SCALE "$@"
+done
+(cd ../postgresql && bash ./stopPostgreDB.sh)
@@ -4,4 +4,6 @@ PORT=$2
 USER=$3
 
 # Example: source ./run.sh flightDB 5432 user
-java -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER
+# Reseed from the client: source ./run.sh flightDB 5432 user -load ../data
+# Run a file of operations with 4 workers: source ./run.sh flightDB 5432 user -batch ops.csv 4
+java -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER "${@:4}"
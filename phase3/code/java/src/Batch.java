@@ -0,0 +1,49 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class collects parameterized statements to be sent with JDBC batching
+ * by MechanicShop.executeBatch().  Rows of the same SQL string are sent as one
+ * batch; the SQL strings are run in the order they were first added, so
+ * parents must be added before the rows referencing them.
+ *
+ */
+
+public class Batch{
+	private final LinkedHashMap<String, List<Object[]>> _statements = new LinkedHashMap<String, List<Object[]>>();
+	private int _size = 0;
+
+	/**
+	 * Method to queue one execution of a statement.
+	 *
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 */
+	public void add(String sql, Object... params){
+		List<Object[]> rows = this._statements.get(sql);
+		if (rows == null){
+			rows = new ArrayList<Object[]>();
+			this._statements.put(sql, rows);
+		}//end if
+		rows.add(params);
+		++this._size;
+	}//end add
+
+	/**
+	 * @return the number of queued executions
+	 */
+	public int size(){
+		return this._size;
+	}
+
+	public boolean isEmpty(){
+		return this._size == 0;
+	}
+
+	Set<Map.Entry<String, List<Object[]>>> statements(){
+		return this._statements.entrySet();
+	}
+}
@@ -0,0 +1,354 @@
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class measures the data access methods of MechanicShop and the
+ * queries of the ten menu operations: throughput, latency percentiles and
+ * bytes allocated per operation on the client.  Each operation is run for
+ * mechanicshop.bench.warmup seconds, whose results are dropped, and then
+ * for mechanicshop.bench.time seconds.  Parameters are taken round robin
+ * from rows sampled out of the loaded data.
+ *
+ * The write operations add rows, so they run after the reads.  Run it on
+ * a throwaway database, see bench.sh.
+ *
+ * Usage: java -cp lib/*:bin/ Benchmark <dbname> <port> <user>
+ *            [-load <csv dir>] [-scale N] [-only <regex>]
+ * where -load reseeds the tables first, -scale multiplies the loaded rows
+ * N times through BulkLoader.scale() and -only runs the operations whose
+ * name matches.
+ *
+ */
+
+public class Benchmark{
+	static final double WARMUP = Double.parseDouble(System.getProperty("mechanicshop.bench.warmup", "5"));
+	static final double TIME = Double.parseDouble(System.getProperty("mechanicshop.bench.time", "10"));
+	//rows of each kind sampled for parameters
+	static final int SAMPLES = 1000;
+
+	/**
+	 * One measured operation, i is the number of the invocation.
+	 */
+	private static abstract class Operation{
+		final String name;
+
+		Operation(String name){
+			this.name = name;
+		}
+
+		/**
+		 * Method run once before the warmup, outside of the measure.
+		 */
+		void prepare() throws SQLException {
+		}
+
+		abstract void run(int i) throws SQLException;
+	}
+
+	//counts the rows of a streamed report without keeping them
+	private static final RowHandler COUNT = new RowHandler(){
+		public boolean handle(Row row){
+			return true;
+		}
+	};
+
+	//discards the output of the columnar reports
+	private static final PrintWriter NULL = new PrintWriter(new Writer(){
+		public void write(char[] buffer, int offset, int length){
+		}
+
+		public void flush(){
+		}
+
+		public void close(){
+		}
+	});
+
+	private final MechanicShop _esql;
+	private final int _scale;
+	private final ThreadMXBean _threads = ManagementFactory.getThreadMXBean();
+
+	//customer_id, lname, car_vin of sampled ownerships
+	private List<List<String>> _owners;
+	//rid of sampled service requests
+	private IntColumn _requests;
+	//id of sampled mechanics
+	private IntColumn _mechanics;
+
+	public Benchmark(MechanicShop esql, int scale){
+		this._esql = esql;
+		this._scale = scale;
+	}
+
+	/**
+	 * Method to run every operation whose name matches and print a line of
+	 * results for each.
+	 *
+	 * @param only a regular expression on the operation names, null for all
+	 * @throws java.sql.SQLException when an operation failed
+	 */
+	public void run(String only) throws SQLException {
+		this._owners = this._esql.query("SELECT O.customer_id, C.lname, O.car_vin FROM Owns O, Customer C WHERE C.id = O.customer_id LIMIT " + SAMPLES);
+		this._requests = this._esql.queryInts("SELECT rid FROM Service_Request LIMIT " + SAMPLES);
+		this._mechanics = this._esql.queryInts("SELECT id FROM Mechanic LIMIT " + SAMPLES);
+		if (this._owners.isEmpty() || this._requests.size() == 0 || this._mechanics.size() == 0){
+			throw new SQLException("Load the sample data before running the benchmark");
+		}//end if
+
+		System.out.println(String.format("%-36s %5s %10s %9s %9s %9s %9s %11s",
+			"operation", "scale", "ops/sec", "mean ms", "p50 ms", "p99 ms", "max ms", "alloc B/op"));
+		for (Operation op : operations()){
+			if (only == null || op.name.matches(only)){
+				measure(op);
+			}//end if
+		}//end for
+	}//end run
+
+	private List<Operation> operations(){
+		List<Operation> ops = new ArrayList<Operation>();
+		ops.add(new Operation("executeQueryAndReturnResult"){
+			void run(int i) throws SQLException {
+				_esql.executeQueryAndReturnResult("SELECT * FROM Customer WHERE id = " + owner(i).get(0));
+			}
+		});
+		ops.add(new Operation("4. customers by last name"){
+			void run(int i) throws SQLException {
+				_esql.query(MechanicShop.QUERY_CUSTOMERS_BY_LNAME, owner(i).get(1));
+			}
+		});
+		ops.add(new Operation("4. customers by last name (cached)"){
+			void run(int i) throws SQLException {
+				_esql.cachedQueryAs(MechanicShop.TABLES_CUSTOMERS_BY_LNAME, MechanicShop.QUERY_CUSTOMERS_BY_LNAME, Customer.ID_FNAME, owner(i).get(1));
+			}
+		});
+		ops.add(new Operation("4. cars of customer"){
+			void run(int i) throws SQLException {
+				_esql.query(MechanicShop.QUERY_CARS_OF_CUSTOMER, Integer.parseInt(owner(i).get(0)));
+			}
+		});
+		ops.add(new Operation("5. verify close"){
+			void run(int i) throws SQLException {
+				int mid = mechanic(i);
+				int rid = request(i);
+				_esql.queryAs(MechanicShop.QUERY_VERIFY_CLOSE, MechanicShop.VERIFY_CLOSE, mid, mid, rid, rid);
+			}
+		});
+		ops.add(new Operation("6. bill less than 100"){
+			void run(int i) throws SQLException {
+				_esql.stream(_esql.getReports().billLessThan100(), COUNT);
+			}
+		});
+		ops.add(new Operation("7. more than 20 cars"){
+			void run(int i) throws SQLException {
+				_esql.stream(_esql.getReports().moreThan20Cars(), COUNT);
+			}
+		});
+		ops.add(new Operation("8. cars before 1995"){
+			void run(int i) throws SQLException {
+				_esql.stream(MechanicShop.QUERY_CARS_BEFORE_1995, COUNT);
+			}
+		});
+		ops.add(new Operation("9. 10 most serviced cars"){
+			void run(int i) throws SQLException {
+				_esql.stream(_esql.getReports().kMostServicedCars(), COUNT, 10);
+			}
+		});
+		ops.add(new Operation("10. customers by total bill"){
+			void run(int i) throws SQLException {
+				_esql.stream(_esql.getReports().customersByTotalBill(), COUNT);
+			}
+		});
+
+		ops.add(new Operation("6-10. reports at once"){
+			void run(int i) throws SQLException {
+				_esql.getReports().runAll(10);
+			}
+		});
+
+		ops.add(new Operation("snapshot load"){
+			void run(int i) throws SQLException {
+				new ColumnarSnapshot(_esql);
+			}
+		});
+		ops.add(new Operation("6-10. columnar reports"){
+			private ColumnarSnapshot _snapshot = null;
+
+			//taken once before the op is timed, so a reload is never measured
+			void prepare() throws SQLException {
+				this._snapshot = _esql.getReports().snapshot();
+			}
+
+			void run(int i) throws SQLException {
+				ColumnarSnapshot snapshot = this._snapshot;
+				snapshot.printBillLessThan100(NULL);
+				snapshot.printMoreThan20Cars(NULL);
+				snapshot.printCarsBefore1995(NULL);
+				snapshot.printKMostServicedCars(NULL, 10);
+				snapshot.printCustomersByTotalBill(NULL);
+			}
+		});
+
+		ops.add(new Operation("executeUpdate"){
+			void run(int i) throws SQLException {
+				_esql.executeUpdate("UPDATE Mechanic SET experience = experience WHERE id = " + mechanic(i));
+			}
+		});
+		ops.add(new Operation("1. add customer"){
+			void run(int i) throws SQLException {
+				int id = _esql.getNextId(IdAllocator.CUSTOMER_SEQ);
+				_esql.update("INSERT INTO Customer VALUES(?, ?, ?, ?, ?)", id, "Bench", "Customer" + i, "(000)000-0000", "1 Bench St");
+			}
+		});
+		ops.add(new Operation("2. add mechanic"){
+			void run(int i) throws SQLException {
+				int id = _esql.getNextId(IdAllocator.MECHANIC_SEQ);
+				_esql.update("INSERT INTO Mechanic VALUES(?, ?, ?, ?)", id, "Bench", "Mechanic" + i, 5);
+			}
+		});
+		ops.add(new Operation("3. add car"){
+			void run(int i) throws SQLException {
+				int id = _esql.getNextId(IdAllocator.OWNS_SEQ);
+				//no sample VIN starts with B plus digits
+				String vin = String.format("B%015d", id);
+				Batch batch = new Batch();
+				batch.add("INSERT INTO Car VALUES(?, ?, ?, ?)", vin, "Bench", "Car", 2000);
+				batch.add("INSERT INTO Owns VALUES(?, ?, ?)", id, Integer.parseInt(owner(i).get(0)), vin);
+				_esql.executeBatch(batch);
+			}
+		});
+		ops.add(new Operation("4. insert service request"){
+			void run(int i) throws SQLException {
+				List<String> owner = owner(i);
+				_esql.cachedQueryAs(MechanicShop.TABLES_CUSTOMERS_BY_LNAME, MechanicShop.QUERY_CUSTOMERS_BY_LNAME, Customer.ID_FNAME, owner.get(1));
+				_esql.query(MechanicShop.QUERY_CARS_OF_CUSTOMER, Integer.parseInt(owner.get(0)));
+				int rid = _esql.getNextId(IdAllocator.SERVICE_REQUEST_SEQ);
+				_esql.update("INSERT INTO Service_Request VALUES(?, ?, ?, ?, ?, ?)", rid,
+					Integer.parseInt(owner.get(0)), owner.get(2), "1/1/2017", 1000, "Bench");
+			}
+		});
+		//closes a request that is actually open, claimed from the queue; when
+		//the queue runs dry a request is added first, as op 4 does
+		ops.add(new Operation("5. close service request"){
+			void run(int i) throws SQLException {
+				int mid = mechanic(i);
+				ServiceRequest request = _esql.getQueue().claim(mid, WorkQueue.OLDEST_FIRST);
+				if (request == null){
+					List<String> owner = owner(i);
+					_esql.update("INSERT INTO Service_Request VALUES(?, ?, ?, ?, ?, ?)", _esql.getNextId(IdAllocator.SERVICE_REQUEST_SEQ),
+						Integer.parseInt(owner.get(0)), owner.get(2), "1/1/2017", 1000, "Bench");
+					request = _esql.getQueue().claim(mid, WorkQueue.OLDEST_FIRST);
+				}//end if
+				_esql.queryAs(MechanicShop.QUERY_VERIFY_CLOSE, MechanicShop.VERIFY_CLOSE, mid, mid, request.rid, request.rid);
+				int wid = _esql.getNextId(IdAllocator.CLOSED_REQUEST_SEQ);
+				Date closed = Date.valueOf(request.date.toLocalDate().plusDays(1));
+				_esql.update("INSERT INTO Closed_Request VALUES(?, ?, ?, ?, ?, ?)", wid, request.rid, mid, closed, "Bench", 50);
+			}
+		});
+		return ops;
+	}
+
+	/**
+	 * Method to warm up and measure one operation on the calling thread.
+	 */
+	private void measure(Operation op) throws SQLException {
+		op.prepare();
+		int i = 0;
+		long end = System.nanoTime() + (long) (WARMUP * 1e9);
+		while (System.nanoTime() < end)
+			op.run(i++);
+
+		LatencyStats stats = new LatencyStats();
+		long allocated = allocated();
+		long start = System.nanoTime();
+		end = start + (long) (TIME * 1e9);
+		long now = start;
+		while (now < end){
+			op.run(i++);
+			long done = System.nanoTime();
+			stats.add(done - now);
+			now = done;
+		}//end while
+		double seconds = (now - start) / 1e9;
+		allocated = allocated() - allocated;
+
+		int count = stats.getCount();
+		System.out.println(String.format("%-36s %4dx %10.1f %9.3f %9.3f %9.3f %9.3f %11s",
+			op.name, this._scale, count / seconds, stats.getMeanMillis(), stats.getPercentileMillis(0.50),
+			stats.getPercentileMillis(0.99), stats.getPercentileMillis(1.0),
+			allocated < 0 ? "n/a" : String.valueOf(allocated / Math.max(1, count))));
+	}//end measure
+
+	/**
+	 * @return the bytes allocated so far by the calling thread, or -1 when
+	 *         the JVM cannot tell
+	 */
+	private long allocated(){
+		if (this._threads instanceof com.sun.management.ThreadMXBean){
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) this._threads;
+			if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()){
+				return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}//end if
+		}//end if
+		return -1;
+	}
+
+	private List<String> owner(int i){
+		return this._owners.get(i % this._owners.size());
+	}
+
+	private int request(int i){
+		return this._requests.get(i % this._requests.size());
+	}
+
+	private int mechanic(int i){
+		return this._mechanics.get(i % this._mechanics.size());
+	}
+
+	public static void main(String[] args){
+		if (args.length < 3) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + Benchmark.class.getName () +
+		            " <dbname> <port> <user> [-load <csv dir>] [-scale N] [-only <regex>]");
+			return;
+		}//end if
+
+		MechanicShop esql = null;
+		try{
+			String load = null;
+			String only = null;
+			int scale = 1;
+			for (int i = 3; i + 1 < args.length; i += 2){
+				if (args[i].equals("-load")){
+					load = args[i + 1];
+				}else if (args[i].equals("-scale")){
+					scale = Integer.parseInt(args[i + 1]);
+				}else if (args[i].equals("-only")){
+					only = args[i + 1];
+				}else{
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}//end if
+			}//end for
+
+			esql = new MechanicShop(args[0], args[1], args[2], "");
+			if (load != null){
+				BulkLoader loader = new BulkLoader(esql);
+				loader.load(new File(load));
+				loader.scale(scale);
+			}//end if
+			new Benchmark(esql, scale).run(only);
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if (esql != null){
+				esql.cleanup();
+			}//end if
+		}
+	}
+}
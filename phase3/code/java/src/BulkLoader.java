@@ -0,0 +1,425 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class reseeds the MechanicShop tables from the CSV files of a local
+ * directory (see phase3/code/data).  The files are streamed from the client
+ * through the COPY protocol, so they do not have to be on the DB host.
+ * Tables are loaded parents first, all in one transaction that starts by
+ * truncating them, and the key sequences are moved past the loaded ids.
+ * Rows may also come from any other Source, see DataGenerator.
+ *
+ */
+
+public class BulkLoader{
+	//bytes sent to the server per write
+	static final int BUFFER_SIZE = Integer.getInteger("mechanicshop.load.bufferSize", 1 << 16);
+	//rows between two progress lines
+	static final long REPORT_ROWS = Long.getLong("mechanicshop.load.reportRows", 1000000L);
+
+	//file, table, columns in foreign key order and the type of each column:
+	//i for an integer, d for a date, s for text
+	static final String[][] TABLES = {
+		{ "customer.csv", "Customer", "id, fname, lname, phone, address", "issss" },
+		{ "mechanic.csv", "Mechanic", "id, fname, lname, experience", "issi" },
+		{ "car.csv", "Car", "vin, make, model, year", "sssi" },
+		{ "owns.csv", "Owns", "ownership_id, customer_id, car_vin", "iis" },
+		{ "service_request.csv", "Service_Request", "rid, customer_id, car_vin, date, odometer, complain", "iisdis" },
+		{ "closed_request.csv", "Closed_Request", "wid, rid, mid, date, comment, bill", "iiidsi" },
+	};
+	//invalid rows described before validate() gives up on a file
+	static final int MAX_ERRORS = 10;
+	//files whose first column is a key the partitioned tables do not keep
+	//unique, see PARTITIONS in create.sql
+	static final String[] UNIQUE_KEYS = { "service_request.csv", "closed_request.csv" };
+
+	//run by finish() in place of the checks of the triggers it turned off:
+	//the first offending key, if any, and the error it is reported as
+	static final String[][] CHECKS = {
+		{ "SELECT rid FROM Service_Request GROUP BY rid HAVING COUNT(*) > 1 LIMIT 1", "23505", "Duplicate Service_Request rid " },
+		{ "SELECT wid FROM Closed_Request GROUP BY wid HAVING COUNT(*) > 1 LIMIT 1", "23505", "Duplicate Closed_Request wid " },
+		{ "SELECT CR.rid FROM Closed_Request CR WHERE NOT EXISTS (SELECT 1 FROM Service_Request S WHERE S.rid = CR.rid) LIMIT 1",
+			"23503", "Closed_Request references a missing Service_Request rid " },
+	};
+
+	//sequence, table and key column kept in sync with the loaded data
+	static final String[][] SEQUENCES = {
+		{ IdAllocator.CUSTOMER_SEQ, "Customer", "id" },
+		{ IdAllocator.MECHANIC_SEQ, "Mechanic", "id" },
+		{ IdAllocator.OWNS_SEQ, "Owns", "ownership_id" },
+		{ IdAllocator.SERVICE_REQUEST_SEQ, "Service_Request", "rid" },
+		{ IdAllocator.CLOSED_REQUEST_SEQ, "Closed_Request", "wid" },
+	};
+
+	//tables whose triggers maintain the report summaries
+	static final String[] SUMMARIZED = { "Owns", "Service_Request", "Closed_Request" };
+
+	private final MechanicShop _esql;
+
+	public BulkLoader(MechanicShop esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Something writing the CSV rows of each table, e.g. a directory of
+	 * files or a data generator.
+	 */
+	public interface Source{
+		/**
+		 * Method to write every row of one table, one line per row.
+		 *
+		 * @param file the name of the table's file in TABLES, e.g. car.csv
+		 * @param out where the rows go
+		 */
+		void write(String file, OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Method to replace the content of every table with the CSV files found
+	 * in a directory.  Nothing is changed unless every file loads.
+	 *
+	 * The files are checked by validate() first.
+	 *
+	 * @param dir the directory holding customer.csv, mechanic.csv, ...
+	 * @return the total number of rows loaded
+	 * @throws java.sql.SQLException when a file is rejected by the DBMS
+	 * @throws java.io.IOException when a file cannot be read or is invalid
+	 */
+	public long load(final File dir) throws SQLException, IOException {
+		validate(dir, Runtime.getRuntime().availableProcessors());
+
+		return load(new Source(){
+			public void write(String file, OutputStream out) throws IOException {
+				byte[] buf = new byte[BUFFER_SIZE];
+				InputStream in = new FileInputStream(new File(dir, file));
+				try{
+					int n;
+					while ((n = in.read(buf)) > 0)
+						out.write(buf, 0, n);
+				}finally{
+					in.close();
+				}//end try
+			}
+		});
+	}//end load
+
+	/**
+	 * Method to check the CSV files of a directory before loading them:
+	 * every row must have the columns of its table, with integers and
+	 * M/D/YYYY dates where expected, and the files of UNIQUE_KEYS no key
+	 * twice.  The files are read in parallel
+	 * chunks by a CsvReader, without going to the DBMS.
+	 *
+	 * @param dir the directory holding customer.csv, mechanic.csv, ...
+	 * @param threads the number of threads reading each file
+	 * @return the total number of rows checked
+	 * @throws java.io.IOException when a file is missing, unreadable or has
+	 *         invalid rows, the first of which are in the message
+	 */
+	public static long validate(File dir, int threads) throws IOException {
+		for (String[] table : TABLES){
+			File file = new File(dir, table[0]);
+			if (!file.isFile()){
+				throw new IOException("Missing " + file.getPath());
+			}//end if
+		}//end for
+
+		long total = 0;
+		for (String[] table : TABLES){
+			final String types = table[3];
+			final List<String> errors = new ArrayList<String>();
+			final AtomicLong invalid = new AtomicLong();
+			final Set<Integer> keys = Arrays.asList(UNIQUE_KEYS).contains(table[0]) ? ConcurrentHashMap.<Integer>newKeySet() : null;
+			total += new CsvReader(new File(dir, table[0])).read(new CsvReader.Handler(){
+				public void row(CsvReader.Fields row){
+					String error = check(row, types);
+					if (error == null && keys != null && !keys.add(row.getInt(0))){
+						error = String.format("byte %d: duplicate key %d", row.getOffset(), row.getInt(0));
+					}//end if
+					if (error != null && invalid.incrementAndGet() <= MAX_ERRORS){
+						synchronized (errors){
+							errors.add(error);
+						}//end synchronized
+					}//end if
+				}
+			}, threads);
+			if (invalid.get() > 0){
+				StringBuilder message = new StringBuilder();
+				message.append(invalid.get()).append(" invalid rows in ").append(table[0]).append(':');
+				for (String error : errors)
+					message.append("\n\t").append(error);
+				throw new IOException(message.toString());
+			}//end if
+		}//end for
+		return total;
+	}//end validate
+
+	/**
+	 * @return what is wrong with a row, or null when it is valid
+	 */
+	private static String check(CsvReader.Fields row, String types){
+		if (row.size() != types.length()){
+			return String.format("byte %d: %d columns instead of %d", row.getOffset(), row.size(), types.length());
+		}//end if
+		try{
+			for (int i = 0; i < types.length(); ++i){
+				switch (types.charAt(i)){
+					case 'i': row.getInt(i); break;
+					case 'd': row.getDate(i); break;
+					default: break;
+				}//end switch
+			}//end for
+			return null;
+		}catch (NumberFormatException e){
+			return e.getMessage();
+		}//end try
+	}
+
+	/**
+	 * Method to replace the content of every table with the rows written by
+	 * a source.  Nothing is changed unless every table loads.
+	 *
+	 * @param source writes the rows of each table in TABLES
+	 * @return the total number of rows loaded
+	 * @throws java.sql.SQLException when a row is rejected by the DBMS
+	 * @throws java.io.IOException when the source failed
+	 */
+	public long load(Source source) throws SQLException, IOException {
+		PooledConnection conn = this._esql.getPool().acquire();
+		try{
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+			CopyManager copy = c.unwrap(PGConnection.class).getCopyAPI();
+			long start = System.nanoTime();
+			long total = 0;
+
+			//Open_Request references Mechanic, finish() refills it from the new requests
+			execute(c, "TRUNCATE Customer, Mechanic, Car, Owns, Service_Request, Closed_Request, Open_Request");
+			disableSummaries(c);
+			for (String[] table : TABLES){
+				String sql = "COPY " + table[1] + " (" + table[2] + ") FROM STDIN WITH DELIMITER ','";
+				total += copyTable(copy, sql, source, table[0], table[1]);
+			}//end for
+			finish(c);
+
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("Loaded %d rows in %.2f s (%.0f rows/sec)", total, seconds, total / seconds));
+			return total;
+		}catch (SQLException e){
+			conn.failed("COPY", e);
+			throw e;
+		}finally{
+			this._esql.getPool().release(conn);
+		}
+	}//end load
+
+	/**
+	 * Method to multiply the rows of every table, e.g. to benchmark larger
+	 * data sets.  Copy g of a row gets its keys shifted by g times the
+	 * largest key plus one, and its VINs prefixed with g as three digits
+	 * (the sample VINs start with letters), so the copies keep their
+	 * relationships.
+	 *
+	 * @param factor the number of copies wanted, from 1 to 999
+	 * @return the number of rows added
+	 * @throws java.sql.SQLException when the copy failed
+	 */
+	public long scale(int factor) throws SQLException {
+		if (factor < 1 || factor > 999){
+			throw new IllegalArgumentException("Scale factor must be between 1 and 999: " + factor);
+		}//end if
+		if (factor == 1){
+			return 0;
+		}//end if
+
+		PooledConnection conn = this._esql.getPool().acquire();
+		try{
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+			long start = System.nanoTime();
+			long total = 0;
+
+			//key spans of the original data, read before any copy is added
+			Statement stmt = c.createStatement();
+			ResultSet rs = stmt.executeQuery("SELECT (SELECT COALESCE(MAX(id), 0) + 1 FROM Customer), "
+				+ "(SELECT COALESCE(MAX(id), 0) + 1 FROM Mechanic), (SELECT COALESCE(MAX(ownership_id), 0) + 1 FROM Owns), "
+				+ "(SELECT COALESCE(MAX(rid), 0) + 1 FROM Service_Request), (SELECT COALESCE(MAX(wid), 0) + 1 FROM Closed_Request)");
+			rs.next();
+			String customer = " + g * " + rs.getInt(1);
+			String mechanic = " + g * " + rs.getInt(2);
+			String owns = " + g * " + rs.getInt(3);
+			String request = " + g * " + rs.getInt(4);
+			String closed = " + g * " + rs.getInt(5);
+			stmt.close();
+			String vin = "lpad(g::text, 3, '0') || substr(%s, 4)";
+			String series = ", generate_series(1, " + (factor - 1) + ") AS g";
+
+			//parents first, each INSERT only reads the original rows
+			String[] copies = {
+				"Customer SELECT id" + customer + ", fname, lname, phone, address FROM Customer" + series,
+				"Mechanic SELECT id" + mechanic + ", fname, lname, experience FROM Mechanic" + series,
+				"Car SELECT " + String.format(vin, "vin") + ", make, model, year FROM Car" + series,
+				"Owns SELECT ownership_id" + owns + ", customer_id" + customer + ", " + String.format(vin, "car_vin")
+					+ " FROM Owns" + series,
+				"Service_Request SELECT rid" + request + ", customer_id" + customer + ", " + String.format(vin, "car_vin")
+					+ ", date, odometer, complain FROM Service_Request" + series,
+				"Closed_Request SELECT wid" + closed + ", rid" + request + ", mid" + mechanic
+					+ ", date, comment, bill FROM Closed_Request" + series,
+			};
+			disableSummaries(c);
+			for (String copy : copies)
+				total += executeUpdate(c, "INSERT INTO " + copy);
+			finish(c);
+
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("Scaled to %dx, %d rows added in %.2f s", factor, total, seconds));
+			return total;
+		}catch (SQLException e){
+			conn.failed("scale", e);
+			throw e;
+		}finally{
+			this._esql.getPool().release(conn);
+		}
+	}//end scale
+
+	/**
+	 * Method to stop the summary, queue and check triggers, so the report
+	 * summaries are rebuilt and the rows checked once by finish() instead of
+	 * per row.
+	 */
+	private static void disableSummaries(Connection c) throws SQLException {
+		for (String table : SUMMARIZED)
+			execute(c, "ALTER TABLE " + table + " DISABLE TRIGGER USER");
+	}
+
+	/**
+	 * Method to check the loaded rows, rebuild the summaries and the open
+	 * request queue from them, restart their triggers, move the sequences
+	 * past the data, commit and refresh the planner statistics.
+	 *
+	 * @throws java.sql.SQLException when a check of CHECKS failed, nothing
+	 *         is committed then
+	 */
+	private void finish(Connection c) throws SQLException {
+		Statement stmt = c.createStatement();
+		try{
+			for (String[] check : CHECKS){
+				ResultSet rs = stmt.executeQuery(check[0]);
+				if (rs.next()){
+					throw new SQLException(check[2] + rs.getInt(1), check[1]);
+				}//end if
+				rs.close();
+			}//end for
+		}finally{
+			stmt.close();
+		}//end try
+		execute(c, ReportEngine.REFRESH);
+		execute(c, WorkQueue.REFRESH);
+		for (String table : SUMMARIZED)
+			execute(c, "ALTER TABLE " + table + " ENABLE TRIGGER USER");
+		for (String[] seq : SEQUENCES){
+			//only move forward: once called, last_value starts a block some session
+			//holds, so the next free id is the one after that block
+			execute(c, "SELECT setval('" + seq[0] + "', GREATEST((SELECT COALESCE(MAX(" + seq[2] + "), 0) + 1 FROM "
+				+ seq[1] + "), (SELECT CASE WHEN is_called THEN last_value + " + IdAllocator.BLOCK_SIZE
+				+ " ELSE last_value END FROM " + seq[0] + ")), false)");
+		}//end for
+		c.commit();
+		c.setAutoCommit(true);
+		this._esql.getCache().clear();
+		execute(c, "ANALYZE");
+	}
+
+	/**
+	 * Method to stream the rows of one table to the server and report the
+	 * throughput.
+	 *
+	 * @return the number of rows copied
+	 */
+	private long copyTable(CopyManager copy, String sql, Source source, String file, final String table) throws SQLException, IOException {
+		long start = System.nanoTime();
+		final CopyIn copyIn = copy.copyIn(sql);
+		long rows;
+		try{
+			OutputStream out = new OutputStream(){
+				private long _rows = 0;
+				private long _nextReport = REPORT_ROWS;
+
+				public void write(int b) throws IOException {
+					write(new byte[]{ (byte) b }, 0, 1);
+				}
+
+				public void write(byte[] buf, int off, int len) throws IOException {
+					try{
+						copyIn.writeToCopy(buf, off, len);
+					}catch (SQLException e){
+						throw new IOException(e);
+					}//end try
+					for (int i = off; i < off + len; ++i){
+						if (buf[i] == '\n'){
+							++this._rows;
+						}//end if
+					}//end for
+					if (this._rows >= this._nextReport){
+						System.out.println("\t" + table + ": " + this._rows + " rows...");
+						this._nextReport += REPORT_ROWS;
+					}//end if
+				}
+			};
+			BufferedOutputStream buffered = new BufferedOutputStream(out, BUFFER_SIZE);
+			source.write(file, buffered);
+			buffered.flush();
+			rows = copyIn.endCopy();
+		}catch (IOException e){
+			//report the DBMS error behind a failed write
+			if (e.getCause() instanceof SQLException){
+				throw (SQLException) e.getCause();
+			}//end if
+			throw e;
+		}finally{
+			if (copyIn.isActive()){
+				copyIn.cancelCopy();
+			}//end if
+		}//end try
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("\t%-16s %9d rows %8.2f s %10.0f rows/sec", table, rows, seconds, rows / seconds));
+		return rows;
+	}//end copyTable
+
+	private static int executeUpdate(Connection c, String sql) throws SQLException {
+		Statement stmt = c.createStatement();
+		try{
+			return stmt.executeUpdate(sql);
+		}finally{
+			stmt.close();
+		}//end try
+	}
+
+	private static void execute(Connection c, String sql) throws SQLException {
+		Statement stmt = c.createStatement();
+		try{
+			stmt.execute(sql);
+		}finally{
+			stmt.close();
+		}//end try
+	}
+}
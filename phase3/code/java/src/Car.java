@@ -0,0 +1,27 @@
+import java.sql.SQLException;
+
+/**
+ * One row of the Car table.
+ *
+ */
+
+public class Car{
+	//reads the columns of Car in create.sql order, e.g. from SELECT C.* FROM Car C
+	public static final RowMapper<Car> MAPPER = new RowMapper<Car>(){
+		public Car map(Row row) throws SQLException {
+			return new Car(row.getString(1), row.getString(2), row.getString(3), row.getInt(4));
+		}
+	};
+
+	public final String vin;
+	public final String make;
+	public final String model;
+	public final int year;
+
+	public Car(String vin, String make, String model, int year){
+		this.vin = vin;
+		this.make = make;
+		this.model = model;
+		this.year = year;
+	}
+}
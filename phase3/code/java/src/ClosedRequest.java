@@ -0,0 +1,32 @@
+import java.sql.Date;
+import java.sql.SQLException;
+
+/**
+ * One row of the Closed_Request table.
+ *
+ */
+
+public class ClosedRequest{
+	//reads the columns of Closed_Request in create.sql order, e.g. from SELECT CR.* FROM Closed_Request CR
+	public static final RowMapper<ClosedRequest> MAPPER = new RowMapper<ClosedRequest>(){
+		public ClosedRequest map(Row row) throws SQLException {
+			return new ClosedRequest(row.getInt(1), row.getInt(2), row.getInt(3), row.getDate(4), row.getString(5), row.getInt(6));
+		}
+	};
+
+	public final int wid;
+	public final int rid;
+	public final int mid;
+	public final Date date;
+	public final String comment;
+	public final int bill;
+
+	public ClosedRequest(int wid, int rid, int mid, Date date, String comment, int bill){
+		this.wid = wid;
+		this.rid = rid;
+		this.mid = mid;
+		this.date = date;
+		this.comment = comment;
+		this.bill = bill;
+	}
+}
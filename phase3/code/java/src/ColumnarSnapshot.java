@@ -0,0 +1,424 @@
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.BinaryOperator;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * This class holds a copy of the tables read by reports 6 to 10 in memory,
+ * one primitive array per column, and runs the reports over it with
+ * parallel streams instead of on the DBMS.  Foreign keys are resolved once
+ * at load time to array positions, so the joins of the reports are plain
+ * array lookups.  Strings repeated across rows (names, makes, models,
+ * comments) are stored once in a dictionary and referenced by code; cars
+ * are kept sorted by VIN, so a VIN is identified by its position.
+ *
+ * A snapshot is immutable and reflects the tables when it was loaded.
+ * Rows referencing a row missing from the snapshot are skipped.
+ *
+ */
+
+public class ColumnarSnapshot{
+	//chunks the group counts and sums are split into, one per processor
+	static final int CHUNKS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Strings stored once each and referenced by int codes.
+	 */
+	private static class Dictionary{
+		private final Map<String, Integer> _codes = new HashMap<String, Integer>();
+		private final List<String> _values = new ArrayList<String>();
+
+		int encode(String value){
+			Integer code = this._codes.get(value);
+			if (code == null){
+				code = this._values.size();
+				this._codes.put(value, code);
+				this._values.add(value);
+			}//end if
+			return code;
+		}
+
+		String decode(int code){
+			return this._values.get(code);
+		}
+	}
+
+	private final Dictionary _strings = new Dictionary();
+
+	//Customer, sorted by id
+	private final int[] _customerId;
+	private final int[] _fname;
+	private final int[] _lname;
+
+	//Car, sorted by VIN
+	private final String[] _vin;
+	private final int[] _make;
+	private final int[] _model;
+	private final int[] _year;
+
+	//Owns, as positions in the customer and car columns
+	private final int[] _ownsCustomer;
+
+	//Service_Request, sorted by rid
+	private final int[] _rid;
+	private final int[] _requestCustomer;
+	private final int[] _requestCar;
+	private final int[] _odometer;
+
+	//Closed_Request, as a position in the request columns
+	private final int[] _closedRequest;
+	private final int[] _closedDate;
+	private final int[] _comment;
+	private final int[] _bill;
+
+	private final long _loaded;
+	private final long _loadNanos;
+
+	/**
+	 * Method to read the report tables from the DBMS into a new snapshot.
+	 * Each table is streamed, so only the columnar copy is held in memory.
+	 *
+	 * @param esql the MechanicShop to read through
+	 * @throws java.sql.SQLException when failed to read a table
+	 */
+	public ColumnarSnapshot(MechanicShop esql) throws SQLException {
+		long start = System.nanoTime();
+
+		final IntColumn customerId = new IntColumn(1024);
+		final IntColumn fname = new IntColumn(1024);
+		final IntColumn lname = new IntColumn(1024);
+		esql.stream("SELECT id, fname, lname FROM Customer ORDER BY id", new RowHandler(){
+			public boolean handle(Row row) throws SQLException {
+				customerId.add(row.getInt(1));
+				fname.add(_strings.encode(row.getString(2)));
+				lname.add(_strings.encode(row.getString(3)));
+				return true;
+			}
+		});
+		this._customerId = customerId.toArray();
+		this._fname = fname.toArray();
+		this._lname = lname.toArray();
+
+		//the DBMS collation may order VINs differently from String, so sort here
+		final List<String> vins = new ArrayList<String>();
+		final IntColumn make = new IntColumn(1024);
+		final IntColumn model = new IntColumn(1024);
+		final IntColumn year = new IntColumn(1024);
+		esql.stream("SELECT vin, make, model, year FROM Car", new RowHandler(){
+			public boolean handle(Row row) throws SQLException {
+				vins.add(row.getString(1));
+				make.add(_strings.encode(row.getString(2)));
+				model.add(_strings.encode(row.getString(3)));
+				year.add(row.getInt(4));
+				return true;
+			}
+		});
+		this._vin = vins.toArray(new String[vins.size()]);
+		Arrays.parallelSort(this._vin);
+		this._make = new int[this._vin.length];
+		this._model = new int[this._vin.length];
+		this._year = new int[this._vin.length];
+		for (int i = 0; i < this._vin.length; ++i){
+			int at = Arrays.binarySearch(this._vin, vins.get(i));
+			this._make[at] = make.get(i);
+			this._model[at] = model.get(i);
+			this._year[at] = year.get(i);
+		}//end for
+
+		final IntColumn ownsCustomer = new IntColumn(1024);
+		esql.stream("SELECT customer_id, car_vin FROM Owns", new RowHandler(){
+			public boolean handle(Row row) throws SQLException {
+				int customer = customer(row.getInt(1));
+				if (customer >= 0 && car(row.getString(2)) >= 0){
+					ownsCustomer.add(customer);
+				}//end if
+				return true;
+			}
+		});
+		this._ownsCustomer = ownsCustomer.toArray();
+
+		final IntColumn rid = new IntColumn(1024);
+		final IntColumn requestCustomer = new IntColumn(1024);
+		final IntColumn requestCar = new IntColumn(1024);
+		final IntColumn odometer = new IntColumn(1024);
+		esql.stream("SELECT rid, customer_id, car_vin, odometer FROM Service_Request ORDER BY rid", new RowHandler(){
+			public boolean handle(Row row) throws SQLException {
+				int customer = customer(row.getInt(2));
+				int car = car(row.getString(3));
+				if (customer >= 0 && car >= 0){
+					rid.add(row.getInt(1));
+					requestCustomer.add(customer);
+					requestCar.add(car);
+					odometer.add(row.getInt(4));
+				}//end if
+				return true;
+			}
+		});
+		this._rid = rid.toArray();
+		this._requestCustomer = requestCustomer.toArray();
+		this._requestCar = requestCar.toArray();
+		this._odometer = odometer.toArray();
+
+		final IntColumn closedRequest = new IntColumn(1024);
+		final IntColumn closedDate = new IntColumn(1024);
+		final IntColumn comment = new IntColumn(1024);
+		final IntColumn bill = new IntColumn(1024);
+		esql.stream("SELECT rid, date, comment, bill FROM Closed_Request", new RowHandler(){
+			public boolean handle(Row row) throws SQLException {
+				int request = Arrays.binarySearch(_rid, row.getInt(1));
+				if (request >= 0){
+					closedRequest.add(request);
+					closedDate.add((int) row.getDate(2).toLocalDate().toEpochDay());
+					comment.add(_strings.encode(row.getString(3)));
+					bill.add(row.getInt(4));
+				}//end if
+				return true;
+			}
+		});
+		this._closedRequest = closedRequest.toArray();
+		this._closedDate = closedDate.toArray();
+		this._comment = comment.toArray();
+		this._bill = bill.toArray();
+
+		this._loaded = System.currentTimeMillis();
+		this._loadNanos = System.nanoTime() - start;
+	}
+
+	public String toString(){
+		return String.format("snapshot of %d customers, %d cars, %d requests, %d closed requests, read in %.2f s",
+			this._customerId.length, this._vin.length, this._rid.length, this._closedRequest.length, this._loadNanos / 1e9);
+	}
+
+	/**
+	 * @return the time the snapshot was loaded, in ms since the epoch
+	 */
+	public long getLoaded(){
+		return this._loaded;
+	}
+
+	/**
+	 * Method to print report 6, the closed requests billed less than 100.
+	 *
+	 * @return the number of rows printed
+	 */
+	public long printBillLessThan100(PrintWriter out){
+		int[] rows = IntStream.range(0, this._bill.length).parallel().filter(new IntPredicate(){
+			public boolean test(int i){
+				return _bill[i] < 100;
+			}
+		}).toArray();
+		if (rows.length > 0){
+			printHeader(out, "fname", "lname", "date", "comment", "bill");
+		}//end if
+		for (int i : rows){
+			int customer = this._requestCustomer[this._closedRequest[i]];
+			printRow(out, this._strings.decode(this._fname[customer]), this._strings.decode(this._lname[customer]),
+				LocalDate.ofEpochDay(this._closedDate[i]), this._strings.decode(this._comment[i]), this._bill[i]);
+		}//end for
+		return rows.length;
+	}
+
+	/**
+	 * Method to print report 7, the customers owning more than 20 cars.
+	 *
+	 * @return the number of rows printed
+	 */
+	public long printMoreThan20Cars(PrintWriter out){
+		final int[] cars = countBy(this._ownsCustomer, this._customerId.length);
+		int[] rows = IntStream.range(0, cars.length).parallel().filter(new IntPredicate(){
+			public boolean test(int i){
+				return cars[i] > 20;
+			}
+		}).toArray();
+		if (rows.length > 0){
+			printHeader(out, "fname", "lname", "count");
+		}//end if
+		for (int i : rows)
+			printRow(out, this._strings.decode(this._fname[i]), this._strings.decode(this._lname[i]), cars[i]);
+		return rows.length;
+	}
+
+	/**
+	 * Method to print report 8, the requests on cars made before 1995 with
+	 * less than 50000 miles.
+	 *
+	 * @return the number of rows printed
+	 */
+	public long printCarsBefore1995(PrintWriter out){
+		int[] rows = IntStream.range(0, this._rid.length).parallel().filter(new IntPredicate(){
+			public boolean test(int i){
+				return _odometer[i] < 50000 && _year[_requestCar[i]] < 1995;
+			}
+		}).toArray();
+		if (rows.length > 0){
+			printHeader(out, "rid", "customer_id", "vin", "make", "model", "year", "odometer");
+		}//end if
+		for (int i : rows){
+			int car = this._requestCar[i];
+			printRow(out, this._rid[i], this._customerId[this._requestCustomer[i]], this._vin[car],
+				this._strings.decode(this._make[car]), this._strings.decode(this._model[car]), this._year[car], this._odometer[i]);
+		}//end for
+		return rows.length;
+	}
+
+	/**
+	 * Method to print report 9, the K cars with the most service requests,
+	 * most requested first.
+	 *
+	 * @return the number of rows printed
+	 */
+	public long printKMostServicedCars(PrintWriter out, int k){
+		final int[] requests = countBy(this._requestCar, this._vin.length);
+		if (k <= 0){
+			return 0;
+		}//end if
+		Comparator<Integer> byRequests = new Comparator<Integer>(){
+			public int compare(Integer a, Integer b){
+				return Integer.compare(requests[a], requests[b]);
+			}
+		};
+		//min-heap of the best K cars seen so far
+		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(Math.min(k, 1024) + 1, byRequests);
+		for (int car = 0; car < requests.length; ++car){
+			if (requests[car] == 0 || (heap.size() == k && requests[car] <= requests[heap.peek()])){
+				continue;
+			}//end if
+			heap.offer(car);
+			if (heap.size() > k){
+				heap.poll();
+			}//end if
+		}//end for
+		List<Integer> cars = new ArrayList<Integer>(heap);
+		Collections.sort(cars, Collections.reverseOrder(byRequests));
+		if (!cars.isEmpty()){
+			printHeader(out, "make", "model", "year", "vin", "total_requests");
+		}//end if
+		for (int car : cars)
+			printRow(out, this._strings.decode(this._make[car]), this._strings.decode(this._model[car]), this._year[car],
+				this._vin[car], requests[car]);
+		return cars.size();
+	}
+
+	/**
+	 * Method to print report 10, the customers with a closed request by
+	 * descending total bill.
+	 *
+	 * @return the number of rows printed
+	 */
+	public long printCustomersByTotalBill(PrintWriter out){
+		final int[] byCustomer = new int[this._closedRequest.length];
+		for (int i = 0; i < byCustomer.length; ++i)
+			byCustomer[i] = this._requestCustomer[this._closedRequest[i]];
+		final long[] totals = sumBy(byCustomer, this._bill, this._customerId.length);
+		final int[] closed = countBy(byCustomer, this._customerId.length);
+		Integer[] rows = IntStream.range(0, totals.length).parallel().filter(new IntPredicate(){
+			public boolean test(int i){
+				return closed[i] > 0;
+			}
+		}).boxed().toArray(Integer[]::new);
+		Arrays.parallelSort(rows, new Comparator<Integer>(){
+			public int compare(Integer a, Integer b){
+				return Long.compare(totals[b], totals[a]);
+			}
+		});
+		if (rows.length > 0){
+			printHeader(out, "fname", "lname", "total_bill");
+		}//end if
+		for (int i : rows)
+			printRow(out, this._strings.decode(this._fname[i]), this._strings.decode(this._lname[i]), totals[i]);
+		return rows.length;
+	}
+
+	/**
+	 * @return the position of a customer id, -1 when it is not loaded
+	 */
+	private int customer(int id){
+		int at = Arrays.binarySearch(this._customerId, id);
+		return at < 0 ? -1 : at;
+	}
+
+	/**
+	 * @return the position of a VIN, -1 when it is not loaded
+	 */
+	private int car(String vin){
+		int at = Arrays.binarySearch(this._vin, vin);
+		return at < 0 ? -1 : at;
+	}
+
+	/**
+	 * Method to count the rows of each group in parallel.  The rows are cut
+	 * into one chunk per processor, each counted into its own array, so only
+	 * CHUNKS arrays of groups entries are allocated and merged.
+	 *
+	 * @param keys the group of each row, from 0 to groups - 1
+	 * @return the number of rows of each group
+	 */
+	private static int[] countBy(final int[] keys, final int groups){
+		final int size = chunkSize(keys.length);
+		return IntStream.range(0, CHUNKS).parallel().mapToObj(new IntFunction<int[]>(){
+			public int[] apply(int chunk){
+				int[] counts = new int[groups];
+				for (int i = chunk * size, end = Math.min(keys.length, i + size); i < end; ++i)
+					++counts[keys[i]];
+				return counts;
+			}
+		}).reduce(new BinaryOperator<int[]>(){
+			public int[] apply(int[] counts, int[] other){
+				for (int g = 0; g < groups; ++g)
+					counts[g] += other[g];
+				return counts;
+			}
+		}).get();
+	}
+
+	/**
+	 * Method to sum a value per group in parallel, see countBy().
+	 *
+	 * @return the sum of the values of each group
+	 */
+	private static long[] sumBy(final int[] keys, final int[] values, final int groups){
+		final int size = chunkSize(keys.length);
+		return IntStream.range(0, CHUNKS).parallel().mapToObj(new IntFunction<long[]>(){
+			public long[] apply(int chunk){
+				long[] sums = new long[groups];
+				for (int i = chunk * size, end = Math.min(keys.length, i + size); i < end; ++i)
+					sums[keys[i]] += values[i];
+				return sums;
+			}
+		}).reduce(new BinaryOperator<long[]>(){
+			public long[] apply(long[] sums, long[] other){
+				for (int g = 0; g < groups; ++g)
+					sums[g] += other[g];
+				return sums;
+			}
+		}).get();
+	}
+
+	//rows per chunk of countBy() and sumBy()
+	private static int chunkSize(int rows){
+		return (rows + CHUNKS - 1) / CHUNKS;
+	}
+
+	private static void printHeader(PrintWriter out, String... columns){
+		for (String column : columns)
+			out.print(column + "\t");
+		out.println();
+	}
+
+	private static void printRow(PrintWriter out, Object... values){
+		for (Object value : values)
+			out.print(value + "\t");
+		out.println();
+	}
+}
@@ -0,0 +1,341 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * This class keeps a bounded set of physical connections to the DBMS so that
+ * several sessions can share them.  At least minSize connections are kept
+ * open; up to maxSize are opened on demand.  A borrower that finds the pool
+ * exhausted waits up to the acquisition timeout.  A background task closes
+ * connections that stayed idle longer than the idle timeout and reports
+ * connections held longer than the leak threshold.
+ *
+ */
+
+public class ConnectionPool{
+	//query run on a connection that was idle for a while before handing it out
+	public static final String VALIDATION_QUERY = "SELECT 1";
+
+	private final String _url;
+	private final Properties _props;
+	private final int _minSize;
+	private final int _maxSize;
+	private final long _idleTimeout;
+	private final long _acquireTimeout;
+	private final long _leakThreshold;
+	private final long _validationInterval;
+	private final int _statementCacheSize;
+
+	//most recently released connection first
+	private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+	private final List<PooledConnection> _active = new ArrayList<PooledConnection>();
+	//connections being opened outside the lock
+	private int _pending = 0;
+	private boolean _closed = false;
+	private final Timer _housekeeper;
+
+	//metrics
+	private long _acquireCount = 0;
+	private long _waitCount = 0;
+	private long _totalWaitNanos = 0;
+	private long _maxWaitNanos = 0;
+	private long _timeoutCount = 0;
+	private long _leakCount = 0;
+	private long _discardCount = 0;
+
+	/**
+	 * Creates the pool and opens minSize connections up front.
+	 *
+	 * @param url the JDBC connection URL
+	 * @param props the connection properties, e.g. user and password
+	 * @param minSize connections kept open even when idle
+	 * @param maxSize upper bound of open connections
+	 * @param idleTimeout ms after which an idle connection above minSize is closed
+	 * @param acquireTimeout ms to wait for a free connection before failing
+	 * @param leakThreshold ms after which a borrowed connection is reported, 0 to disable
+	 * @param validationInterval ms of idleness after which a connection is validated before use
+	 * @param statementCacheSize prepared statements kept open per connection
+	 * @throws java.sql.SQLException when failed to open the initial connections
+	 */
+	public ConnectionPool(String url, Properties props, int minSize, int maxSize,
+			long idleTimeout, long acquireTimeout, long leakThreshold,
+			long validationInterval, int statementCacheSize) throws SQLException {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize){
+			throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+		}//end if
+		this._url = url;
+		this._props = props;
+		this._minSize = minSize;
+		this._maxSize = maxSize;
+		this._idleTimeout = idleTimeout;
+		this._acquireTimeout = acquireTimeout;
+		this._leakThreshold = leakThreshold;
+		this._validationInterval = validationInterval;
+		this._statementCacheSize = statementCacheSize;
+
+		try{
+			for (int i = 0; i < minSize; ++i)
+				this._idle.add(open());
+		}catch (SQLException e){
+			for (PooledConnection conn : this._idle)
+				conn.close();
+			throw e;
+		}//end try
+
+		this._housekeeper = new Timer("ConnectionPool-housekeeper", true);
+		long period = Math.max(1000L, Math.min(idleTimeout, leakThreshold > 0 ? leakThreshold : idleTimeout) / 2);
+		this._housekeeper.schedule(new TimerTask(){
+			public void run(){
+				housekeep();
+			}
+		}, period, period);
+	}
+
+	/**
+	 * Method to borrow a connection.  It must be given back with release()
+	 * in a finally block.
+	 *
+	 * @return a validated connection
+	 * @throws java.sql.SQLException when no connection became available
+	 *         within the acquisition timeout or a new one failed to open
+	 */
+	public PooledConnection acquire() throws SQLException {
+		long start = System.nanoTime();
+		long deadline = start + this._acquireTimeout * 1000000L;
+		boolean waited = false;
+		while (true){
+			PooledConnection conn = null;
+			boolean create = false;
+			synchronized (this){
+				while (true){
+					if (this._closed){
+						throw new SQLException("Connection pool is closed", "08003");
+					}//end if
+					conn = this._idle.pollFirst();
+					if (conn != null){
+						break;
+					}//end if
+					if (size() < this._maxSize){
+						++this._pending;
+						create = true;
+						break;
+					}//end if
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0){
+						++this._timeoutCount;
+						throw new SQLException("Timed out after " + this._acquireTimeout
+							+ " ms waiting for a connection (active " + this._active.size()
+							+ ", max " + this._maxSize + ")", "08001");
+					}//end if
+					waited = true;
+					try{
+						wait(remaining / 1000000L + 1);
+					}catch (InterruptedException e){
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a connection", "08001");
+					}//end try
+				}//end while
+			}//end synchronized
+
+			if (create){
+				try{
+					conn = open();
+				}finally{
+					synchronized (this){
+						--this._pending;
+						notifyAll();
+					}//end synchronized
+				}//end try
+			}else if (!validate(conn)){
+				discard(conn);
+				continue;
+			}//end if
+
+			synchronized (this){
+				long waitNanos = System.nanoTime() - start;
+				++this._acquireCount;
+				if (waited){
+					++this._waitCount;
+				}//end if
+				this._totalWaitNanos += waitNanos;
+				this._maxWaitNanos = Math.max(this._maxWaitNanos, waitNanos);
+				this._active.add(conn);
+			}//end synchronized
+			conn.onAcquire(this._leakThreshold > 0);
+			return conn;
+		}//end while
+	}//end acquire
+
+	/**
+	 * Method to give a borrowed connection back to the pool.  Broken or
+	 * closed connections are discarded; an open transaction is rolled back.
+	 *
+	 * @param conn the connection obtained from acquire(), may be null
+	 */
+	public void release(PooledConnection conn){
+		if (conn == null){
+			return;
+		}//end if
+		boolean reusable = !conn.isBroken();
+		try{
+			Connection c = conn.getConnection();
+			if (reusable && c.isClosed()){
+				reusable = false;
+			}//end if
+			if (reusable && !c.getAutoCommit()){
+				c.rollback();
+				c.setAutoCommit(true);
+			}//end if
+		}catch (SQLException e){
+			reusable = false;
+		}//end try
+		conn.onRelease();
+
+		synchronized (this){
+			this._active.remove(conn);
+			if (reusable && !this._closed){
+				this._idle.addFirst(conn);
+				notifyAll();
+				return;
+			}//end if
+		}//end synchronized
+		discard(conn);
+	}//end release
+
+	/**
+	 * Method to close every idle connection and stop the pool.  Connections
+	 * still borrowed are closed when they are released.
+	 */
+	public void close(){
+		this._housekeeper.cancel();
+		List<PooledConnection> idle;
+		synchronized (this){
+			this._closed = true;
+			idle = new ArrayList<PooledConnection>(this._idle);
+			this._idle.clear();
+			notifyAll();
+		}//end synchronized
+		for (PooledConnection conn : idle)
+			conn.close();
+	}//end close
+
+	public synchronized int getActiveCount(){
+		return this._active.size();
+	}
+
+	public synchronized int getIdleCount(){
+		return this._idle.size();
+	}
+
+	public synchronized long getAcquireCount(){
+		return this._acquireCount;
+	}
+
+	public synchronized long getTimeoutCount(){
+		return this._timeoutCount;
+	}
+
+	public synchronized long getLeakCount(){
+		return this._leakCount;
+	}
+
+	/**
+	 * @return the mean time acquire() spent obtaining a connection, in ms
+	 */
+	public synchronized double getAverageWaitMillis(){
+		return this._acquireCount == 0 ? 0.0 : this._totalWaitNanos / 1e6 / this._acquireCount;
+	}
+
+	/**
+	 * @return the longest time acquire() spent obtaining a connection, in ms
+	 */
+	public synchronized double getMaxWaitMillis(){
+		return this._maxWaitNanos / 1e6;
+	}
+
+	public synchronized String toString(){
+		return String.format("active=%d idle=%d max=%d acquired=%d waited=%d avgWait=%.3fms maxWait=%.3fms timeouts=%d leaks=%d discarded=%d",
+			this._active.size(), this._idle.size(), this._maxSize, this._acquireCount, this._waitCount,
+			getAverageWaitMillis(), getMaxWaitMillis(), this._timeoutCount, this._leakCount, this._discardCount);
+	}
+
+	private int size(){
+		return this._idle.size() + this._active.size() + this._pending;
+	}
+
+	private PooledConnection open() throws SQLException {
+		Connection c = DriverManager.getConnection(this._url, this._props);
+		return new PooledConnection(c, this._statementCacheSize);
+	}
+
+	private boolean validate(PooledConnection conn){
+		if (System.currentTimeMillis() - conn.getLastUsed() < this._validationInterval){
+			return true;
+		}//end if
+		try{
+			Statement stmt = conn.getConnection().createStatement();
+			try{
+				stmt.execute(VALIDATION_QUERY);
+			}finally{
+				stmt.close();
+			}//end try
+			return true;
+		}catch (SQLException e){
+			return false;
+		}//end try
+	}//end validate
+
+	private void discard(PooledConnection conn){
+		synchronized (this){
+			++this._discardCount;
+		}//end synchronized
+		conn.close();
+	}
+
+	/**
+	 * Method run by the background timer: closes connections idle for longer
+	 * than the idle timeout while keeping minSize open, and reports borrowed
+	 * connections held for longer than the leak threshold.
+	 */
+	private void housekeep(){
+		long now = System.currentTimeMillis();
+		List<PooledConnection> evicted = new ArrayList<PooledConnection>();
+		List<PooledConnection> leaked = new ArrayList<PooledConnection>();
+		synchronized (this){
+			//the least recently used connections are at the tail
+			Iterator<PooledConnection> it = this._idle.descendingIterator();
+			while (it.hasNext() && size() > this._minSize){
+				PooledConnection conn = it.next();
+				if (now - conn.getLastUsed() >= this._idleTimeout){
+					it.remove();
+					evicted.add(conn);
+				}//end if
+			}//end while
+			if (this._leakThreshold > 0){
+				for (PooledConnection conn : this._active){
+					if (now - conn.getAcquired() >= this._leakThreshold && conn.markLeakReported()){
+						++this._leakCount;
+						leaked.add(conn);
+					}//end if
+				}//end for
+			}//end if
+		}//end synchronized
+		for (PooledConnection conn : evicted)
+			discard(conn);
+		for (PooledConnection conn : leaked){
+			System.err.println("Warning - connection held for more than " + this._leakThreshold + " ms, possible leak");
+			Throwable where = conn.getAcquiredBy();
+			if (where != null){
+				where.printStackTrace();
+			}//end if
+		}//end for
+	}//end housekeep
+}
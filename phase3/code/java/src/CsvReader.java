@@ -0,0 +1,433 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class reads a CSV file in the format of phase3/code/data: one row per
+ * line, fields separated by a delimiter, no quoting, \n or \r\n line ends.
+ * The file is memory-mapped and each row is handed to a Handler as Fields,
+ * which only record where each field starts and ends in the mapped bytes.
+ * Integers and dates are parsed from those bytes, so nothing is allocated
+ * per field unless getString() is called.
+ *
+ * A file can be cut at line ends into chunks read by several threads, in
+ * which case the Handler is called concurrently and rows arrive out of
+ * order.  Chunks are also capped at MAX_CHUNK bytes, the most one mapping
+ * can hold.
+ *
+ */
+
+public class CsvReader{
+	static final int MAX_CHUNK = 1 << 30;
+	private static final String DATE = "a M/D/YYYY HH:MM date";
+
+	/**
+	 * What is done with each row.
+	 */
+	public interface Handler{
+		/**
+		 * @param row the fields of the row, only valid during the call
+		 * @throws java.io.IOException to stop reading
+		 */
+		void row(Fields row) throws IOException;
+	}
+
+	/**
+	 * The fields of one row, reused for every row of a chunk.  Fields are
+	 * numbered from 0.
+	 */
+	public static class Fields{
+		private final String _file;
+		private final ByteBuffer _buf;
+		//offset of the chunk in the file
+		private final long _base;
+		private int _row;
+		private int _size = 0;
+		private int[] _starts = new int[16];
+		private int[] _ends = new int[16];
+		//parse position within a field
+		private int _at;
+
+		Fields(String file, ByteBuffer buf, long base){
+			this._file = file;
+			this._buf = buf;
+			this._base = base;
+		}
+
+		/**
+		 * Method to split the line starting at a position of the chunk.
+		 *
+		 * @return the position after the line
+		 */
+		int split(int from, byte delimiter){
+			int limit = this._buf.limit();
+			this._row = from;
+			this._size = 0;
+			int start = from;
+			int i = from;
+			for (; i < limit; ++i){
+				byte b = this._buf.get(i);
+				if (b == '\n'){
+					break;
+				}//end if
+				if (b == delimiter){
+					add(start, i);
+					start = i + 1;
+				}//end if
+			}//end for
+			int end = i > start && this._buf.get(i - 1) == '\r' ? i - 1 : i;
+			add(start, end);
+			return i + 1;
+		}
+
+		private void add(int start, int end){
+			if (this._size == this._starts.length){
+				this._starts = Arrays.copyOf(this._starts, this._size * 2);
+				this._ends = Arrays.copyOf(this._ends, this._size * 2);
+			}//end if
+			this._starts[this._size] = start;
+			this._ends[this._size] = end;
+			++this._size;
+		}
+
+		/**
+		 * @return the number of fields of the row
+		 */
+		public int size(){
+			return this._size;
+		}
+
+		/**
+		 * @return the offset of the row in the file, for error messages
+		 */
+		public long getOffset(){
+			return this._base + this._row;
+		}
+
+		/**
+		 * @return the length of a field in bytes
+		 */
+		public int length(int field){
+			check(field);
+			return this._ends[field] - this._starts[field];
+		}
+
+		/**
+		 * @return the field decoded as UTF-8, the only getter that allocates
+		 */
+		public String getString(int field){
+			byte[] bytes = new byte[length(field)];
+			for (int i = 0; i < bytes.length; ++i)
+				bytes[i] = this._buf.get(this._starts[field] + i);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * @return the field parsed as a decimal int, spaces around it allowed
+		 * @throws java.lang.NumberFormatException when it is not one
+		 */
+		public int getInt(int field){
+			long value = getLong(field);
+			if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE){
+				throw error(field, "an int");
+			}//end if
+			return (int) value;
+		}
+
+		/**
+		 * @return the field parsed as a decimal long, spaces around it allowed
+		 * @throws java.lang.NumberFormatException when it is not one
+		 */
+		public long getLong(int field){
+			check(field);
+			int i = skipSpaces(this._starts[field], this._ends[field]);
+			int end = trimSpaces(i, this._ends[field]);
+			boolean negative = i < end && this._buf.get(i) == '-';
+			if (negative || (i < end && this._buf.get(i) == '+')){
+				++i;
+			}//end if
+			if (i == end || end - i > 18){
+				throw error(field, "a long");
+			}//end if
+			long value = 0;
+			for (; i < end; ++i){
+				int digit = this._buf.get(i) - '0';
+				if (digit < 0 || digit > 9){
+					throw error(field, "a long");
+				}//end if
+				value = value * 10 + digit;
+			}//end for
+			return negative ? -value : value;
+		}
+
+		/**
+		 * @return the day since 1970-01-01 of a M/D/YYYY date, optionally
+		 *         followed by a time which is ignored
+		 * @throws java.lang.NumberFormatException when it is not a valid date
+		 */
+		public int getDate(int field){
+			return (int) Math.floorDiv(getMinutes(field), 24 * 60);
+		}
+
+		/**
+		 * @return the minute since 1970-01-01 00:00 of a M/D/YYYY HH:MM
+		 *         date, the time being optional
+		 * @throws java.lang.NumberFormatException when it is not a valid date
+		 */
+		public long getMinutes(int field){
+			check(field);
+			int end = trimSpaces(this._starts[field], this._ends[field]);
+			this._at = skipSpaces(this._starts[field], end);
+			int month = number(field, end);
+			skip(field, end, '/');
+			int day = number(field, end);
+			skip(field, end, '/');
+			int year = number(field, end);
+			int hour = 0, minute = 0;
+			if (this._at < end){
+				skip(field, end, ' ');
+				hour = number(field, end);
+				skip(field, end, ':');
+				minute = number(field, end);
+			}//end if
+			if (this._at < end || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+				|| hour > 23 || minute > 59){
+				throw error(field, DATE);
+			}//end if
+			return epochDay(year, month, day) * 24 * 60 + hour * 60 + minute;
+		}
+
+		/**
+		 * @return the 1 to 4 digit number at the parse position
+		 */
+		private int number(int field, int end){
+			int value = 0;
+			int start = this._at;
+			while (this._at < end && this._at - start < 4){
+				int digit = this._buf.get(this._at) - '0';
+				if (digit < 0 || digit > 9){
+					break;
+				}//end if
+				value = value * 10 + digit;
+				++this._at;
+			}//end while
+			if (this._at == start){
+				throw error(field, DATE);
+			}//end if
+			return value;
+		}
+
+		private void skip(int field, int end, char separator){
+			if (this._at == end || this._buf.get(this._at) != separator){
+				throw error(field, DATE);
+			}//end if
+			++this._at;
+		}
+
+		private void check(int field){
+			if (field < 0 || field >= this._size){
+				throw new IndexOutOfBoundsException(String.format("%s at byte %d: no field %d in %d fields",
+					this._file, getOffset(), field, this._size));
+			}//end if
+		}
+
+		private int skipSpaces(int i, int end){
+			while (i < end && this._buf.get(i) == ' ')
+				++i;
+			return i;
+		}
+
+		private int trimSpaces(int start, int end){
+			while (end > start && this._buf.get(end - 1) == ' ')
+				--end;
+			return end;
+		}
+
+		private NumberFormatException error(int field, String expected){
+			return new NumberFormatException(String.format("%s at byte %d: field %d \"%s\" is not %s",
+				this._file, getOffset(), field, getString(field), expected));
+		}
+	}
+
+	private final File _file;
+	private final byte _delimiter;
+
+	public CsvReader(File file){
+		this(file, ',');
+	}
+
+	public CsvReader(File file, char delimiter){
+		this._file = file;
+		this._delimiter = (byte) delimiter;
+	}
+
+	/**
+	 * Method to read every row on the calling thread, in file order.
+	 *
+	 * @param handler called for each row
+	 * @return the number of rows read
+	 * @throws java.io.IOException when the file cannot be read
+	 */
+	public long read(Handler handler) throws IOException {
+		return read(handler, 1);
+	}
+
+	/**
+	 * Method to read every row, the file being cut into chunks read by
+	 * several threads calling the handler concurrently.
+	 *
+	 * @param handler called for each row, must be thread-safe
+	 * @param threads the number of threads reading chunks
+	 * @return the number of rows read
+	 * @throws java.io.IOException when the file cannot be read or the
+	 *         handler failed
+	 */
+	public long read(final Handler handler, int threads) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(this._file, "r");
+		try{
+			final FileChannel channel = file.getChannel();
+			long[] bounds = split(channel, Math.max(1, threads));
+			if (bounds.length == 2 || threads <= 1){
+				long rows = 0;
+				for (int i = 0; i + 1 < bounds.length; ++i)
+					rows += readChunk(channel, bounds[i], bounds[i + 1], handler);
+				return rows;
+			}//end if
+
+			ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, bounds.length - 1));
+			try{
+				List<Future<Long>> chunks = new ArrayList<Future<Long>>();
+				for (int i = 0; i + 1 < bounds.length; ++i){
+					final long from = bounds[i];
+					final long to = bounds[i + 1];
+					chunks.add(executor.submit(new Callable<Long>(){
+						public Long call() throws IOException {
+							return readChunk(channel, from, to, handler);
+						}
+					}));
+				}//end for
+				long rows = 0;
+				for (Future<Long> chunk : chunks)
+					rows += get(chunk);
+				return rows;
+			}finally{
+				executor.shutdownNow();
+			}//end try
+		}finally{
+			file.close();
+		}//end try
+	}//end read
+
+	/**
+	 * @return the offsets cutting the file into chunks, each starting a line
+	 */
+	private static long[] split(FileChannel channel, int chunks) throws IOException {
+		long size = channel.size();
+		chunks = (int) Math.max(chunks, (size + MAX_CHUNK - 1) / MAX_CHUNK);
+		long[] bounds = new long[chunks + 1];
+		int n = 1;
+		ByteBuffer probe = ByteBuffer.allocate(4096);
+		for (int i = 1; i < chunks; ++i){
+			long at = Math.max(bounds[n - 1], size * i / chunks);
+			//move to the start of the next line
+			long next = -1;
+			while (next < 0 && at < size){
+				probe.clear();
+				int read = channel.read(probe, at);
+				for (int j = 0; j < read && next < 0; ++j){
+					if (probe.get(j) == '\n'){
+						next = at + j + 1;
+					}//end if
+				}//end for
+				at += Math.max(read, 0);
+			}//end while
+			if (next < 0 || next >= size){
+				break;
+			}//end if
+			if (next - bounds[n - 1] > MAX_CHUNK){
+				throw new IOException("Line longer than " + MAX_CHUNK + " bytes");
+			}//end if
+			if (next > bounds[n - 1]){
+				bounds[n++] = next;
+			}//end if
+		}//end for
+		bounds[n++] = size;
+		return Arrays.copyOf(bounds, n);
+	}//end split
+
+	private long readChunk(FileChannel channel, long from, long to, Handler handler) throws IOException {
+		if (to <= from){
+			return 0;
+		}//end if
+		MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+		Fields fields = new Fields(this._file.getName(), buf, from);
+		int limit = buf.limit();
+		long rows = 0;
+		int at = 0;
+		while (at < limit){
+			int next = fields.split(at, this._delimiter);
+			//skip blank lines
+			if (fields.size() > 1 || fields.length(0) > 0){
+				handler.row(fields);
+				++rows;
+			}//end if
+			at = next;
+		}//end while
+		return rows;
+	}
+
+	private static long get(Future<Long> chunk) throws IOException {
+		try{
+			return chunk.get();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}catch (ExecutionException e){
+			if (e.getCause() instanceof IOException){
+				throw (IOException) e.getCause();
+			}//end if
+			if (e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}//end if
+			throw new IOException(e.getCause());
+		}//end try
+	}
+
+	private static boolean isLeapYear(int year){
+		return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+	}
+
+	private static int daysInMonth(int year, int month){
+		switch (month){
+			case 2: return isLeapYear(year) ? 29 : 28;
+			case 4: case 6: case 9: case 11: return 30;
+			default: return 31;
+		}//end switch
+	}
+
+	/**
+	 * @return the day since 1970-01-01 of a date of the proleptic Gregorian
+	 *         calendar, as LocalDate.toEpochDay() without the object
+	 */
+	static long epochDay(int year, int month, int day){
+		//count years from March so the leap day ends the year
+		long y = month <= 2 ? year - 1 : year;
+		long era = Math.floorDiv(y, 400);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+}
@@ -0,0 +1,37 @@
+import java.sql.SQLException;
+
+/**
+ * One row of the Customer table.
+ *
+ */
+
+public class Customer{
+	//reads the columns of Customer in create.sql order, e.g. from SELECT C.* FROM Customer C
+	public static final RowMapper<Customer> MAPPER = new RowMapper<Customer>(){
+		public Customer map(Row row) throws SQLException {
+			return new Customer(row.getInt(1), row.getString(2), row.getString(3), row.getString(4), row.getString(5));
+		}
+	};
+
+	//reads only the id and first name, e.g. from SELECT C.id, C.fname FROM Customer C, which the
+	//customer_lname_idx index answers alone; the other fields are left null
+	public static final RowMapper<Customer> ID_FNAME = new RowMapper<Customer>(){
+		public Customer map(Row row) throws SQLException {
+			return new Customer(row.getInt(1), row.getString(2), null, null, null);
+		}
+	};
+
+	public final int id;
+	public final String fname;
+	public final String lname;
+	public final String phone;
+	public final String address;
+
+	public Customer(int id, String fname, String lname, String phone, String address){
+		this.id = id;
+		this.fname = fname;
+		this.lname = lname;
+		this.phone = phone;
+		this.address = address;
+	}
+}
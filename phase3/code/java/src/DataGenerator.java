@@ -0,0 +1,348 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class generates MechanicShop data of any size, either streamed
+ * straight into the tables through BulkLoader or written as CSV files in
+ * the format of phase3/code/data.  Every value is a function of the seed
+ * and the row number, so rows are produced in chunks by several threads
+ * and the same options always give the same data.
+ *
+ * Every car has one owner and every request is on an owned car by its
+ * owner.  Owners and serviced cars are drawn from a Zipf-like distribution
+ * of exponent -skew (0 is uniform), so with the default skew a few
+ * customers own many cars, as report 7 looks for, and a few cars get
+ * most of the requests, as report 9 does.  A -closed fraction of the
+ * requests is closed, on or after the request date, by a random mechanic.
+ *
+ * Usage: java -cp lib/*:bin/ DataGenerator <dbname> <port> <user> [options]
+ *        java -cp lib/*:bin/ DataGenerator -csv <dir> [options]
+ * with options -customers N, -mechanics N, -cars N, -requests N,
+ * -closed F, -skew S, -seed N and -threads N.  Unset counts follow the
+ * proportions of the sample data from -customers (default 100000).
+ * Loading into the DBMS replaces the content of every table.
+ *
+ */
+
+public class DataGenerator implements BulkLoader.Source{
+	//rows generated per task
+	static final int CHUNK_ROWS = 10000;
+
+	static final String[] FIRST_NAMES = { "Armand", "Alberto", "Wyatt", "Alexandria", "Rory", "Blythe", "Maria", "James",
+		"Linda", "Robert", "Patricia", "Michael", "Jennifer", "David", "Elizabeth", "William", "Susan", "Joseph", "Jessica", "Thomas" };
+	static final String[] NAME_STARTS = { "Ender", "Scar", "Ru", "Cuy", "Ber", "Santa", "Mor", "Hol", "Gar", "Wil",
+		"John", "Brown", "Da", "Mil", "Tay", "And", "Tho", "Mar", "Rob", "Whit" };
+	static final String[] NAME_ENDS = { "le", "lett", "off", "ler", "ner", "cruz", "gan", "land", "cia", "son",
+		"s", "ing", "vis", "ford", "man", "ton", "berg", "ez", "wood", "er" };
+	static final String[] STREETS = { "Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Oak Lane", "Main Street",
+		"Elm Road", "Lake Blvd.", "Mill Court", "Park Avenue", "Sunset Drive" };
+	static final String[] CITIES = { "Melbourne", "Baton Rouge", "Cockeysville", "Riverside", "Springfield",
+		"Fairview", "Madison", "Georgetown", "Salem", "Franklin" };
+	static final String[][] MODELS = { { "Toyota", "Prius" }, { "Toyota", "Camry" }, { "Ford", "Focus" }, { "Ford", "F150" },
+		{ "Honda", "Civic" }, { "Honda", "Accord" }, { "Nissan", "Sunny" }, { "BMW", "M3" }, { "Lamborghini", "M1" }, { "Tesla", "Model S" } };
+	static final String[] COMPLAINTS = { "No brakes", "The wheel does not turn right", "Burns too much gas", "Strange noise",
+		"Flat tire", "Engine does not start", "Oil leak", "Check engine light", "Battery dead", "Windows stuck" };
+	static final String[] COMMENTS = { "We lost your car", "We changed the color", "This is a bicycle", "Fixed",
+		"Replaced the part", "Nothing found", "Changed the oil", "Replaced the battery", "Adjusted the alignment", "Customer satisfied" };
+
+	static final LocalDate FIRST_DAY = LocalDate.of(2010, 1, 1);
+	static final int DAYS = 8 * 365;
+
+	/**
+	 * The rows of one table, row(i) being a function of i only.
+	 */
+	private abstract class Table{
+		final long rows;
+
+		Table(long rows){
+			this.rows = rows;
+		}
+
+		abstract void row(long i, StringBuilder out);
+	}
+
+	private final long _customers;
+	private final long _mechanics;
+	private final long _cars;
+	private final long _requests;
+	private final long _closed;
+	private final double _skew;
+	private final long _seed;
+	private final int _threads;
+	//table of each file name of BulkLoader.TABLES
+	private final Map<String, Table> _tables = new HashMap<String, Table>();
+
+	public DataGenerator(long customers, long mechanics, long cars, long requests, double closed, double skew, long seed, int threads){
+		if (customers < 1 || mechanics < 1 || cars < 1 || requests < 0 || closed < 0 || closed > 1 || skew < 0 || threads < 1){
+			throw new IllegalArgumentException("Invalid generator options");
+		}//end if
+		this._customers = customers;
+		this._mechanics = mechanics;
+		this._cars = cars;
+		this._requests = requests;
+		this._closed = (long) (requests * closed);
+		this._skew = skew;
+		this._seed = seed;
+		this._threads = threads;
+
+		this._tables.put("customer.csv", new Table(customers){
+			void row(long i, StringBuilder out){
+				out.append(i).append(',').append(pick(FIRST_NAMES, 1, i)).append(',').append(lname(2, i)).append(',')
+					.append(String.format("(%03d)%03d-%04d", 200 + below(3, i, 800), below(4, i, 1000), below(5, i, 10000))).append(',')
+					.append(1 + below(6, i, 9999)).append(' ').append(pick(STREETS, 7, i)).append(' ').append(pick(CITIES, 8, i));
+			}
+		});
+		this._tables.put("mechanic.csv", new Table(mechanics){
+			void row(long i, StringBuilder out){
+				out.append(i).append(',').append(pick(FIRST_NAMES, 11, i)).append(',').append(lname(12, i)).append(',')
+					.append(below(13, i, 41));
+			}
+		});
+		this._tables.put("car.csv", new Table(cars){
+			void row(long i, StringBuilder out){
+				String[] model = MODELS[(int) below(21, i, MODELS.length)];
+				out.append(vin(i)).append(',').append(model[0]).append(',').append(model[1]).append(',').append(1970 + below(22, i, 48));
+			}
+		});
+		this._tables.put("owns.csv", new Table(cars){
+			void row(long i, StringBuilder out){
+				out.append(i).append(',').append(owner(i)).append(',').append(vin(i));
+			}
+		});
+		this._tables.put("service_request.csv", new Table(requests){
+			void row(long i, StringBuilder out){
+				long car = serviced(i);
+				out.append(i).append(',').append(owner(car)).append(',').append(vin(car)).append(',').append(date(requestDay(i))).append(',')
+					.append(1 + below(42, i, 300000)).append(',').append(pick(COMPLAINTS, 43, i));
+			}
+		});
+		this._tables.put("closed_request.csv", new Table(this._closed){
+			void row(long i, StringBuilder out){
+				//spread the closed requests over all requests
+				long rid = i * _requests / _closed;
+				double u = uniform(53, i);
+				out.append(i).append(',').append(rid).append(',').append(below(51, i, _mechanics)).append(',')
+					.append(date(requestDay(rid) + below(52, i, 31))).append(',').append(pick(COMMENTS, 54, i)).append(',')
+					.append(1 + (long) (u * u * 1000));
+			}
+		});
+	}
+
+	/**
+	 * Method to write the rows of one table, generated in parallel chunks
+	 * and written in order.
+	 */
+	public void write(String file, OutputStream out) throws IOException {
+		final Table table = this._tables.get(file);
+		if (table == null){
+			throw new IOException("Unknown table file " + file);
+		}//end if
+		ExecutorService executor = Executors.newFixedThreadPool(this._threads);
+		try{
+			ArrayDeque<Future<byte[]>> window = new ArrayDeque<Future<byte[]>>();
+			for (long first = 0; first < table.rows; first += CHUNK_ROWS){
+				//bound the chunks held in memory
+				if (window.size() >= this._threads * 2){
+					out.write(get(window.poll()));
+				}//end if
+				final long from = first;
+				final long to = Math.min(table.rows, first + CHUNK_ROWS);
+				window.add(executor.submit(new Callable<byte[]>(){
+					public byte[] call(){
+						StringBuilder chunk = new StringBuilder((int) (to - from) * 64);
+						for (long i = from; i < to; ++i){
+							table.row(i, chunk);
+							chunk.append('\n');
+						}//end for
+						return chunk.toString().getBytes(StandardCharsets.UTF_8);
+					}
+				}));
+			}//end for
+			while (!window.isEmpty())
+				out.write(get(window.poll()));
+		}finally{
+			executor.shutdownNow();
+		}//end try
+	}//end write
+
+	/**
+	 * Method to write every table as a CSV file BulkLoader can load.
+	 *
+	 * @param dir the directory receiving customer.csv, mechanic.csv, ...
+	 * @return the total number of rows written
+	 * @throws java.io.IOException when a file cannot be written
+	 */
+	public long writeFiles(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("Cannot create " + dir.getPath());
+		}//end if
+		long total = 0;
+		for (String[] table : BulkLoader.TABLES){
+			long start = System.nanoTime();
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(dir, table[0])), BulkLoader.BUFFER_SIZE);
+			try{
+				write(table[0], out);
+			}finally{
+				out.close();
+			}//end try
+			long rows = this._tables.get(table[0]).rows;
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("\t%-16s %9d rows %8.2f s %10.0f rows/sec", table[1], rows, seconds, rows / seconds));
+			total += rows;
+		}//end for
+		return total;
+	}//end writeFiles
+
+	private static byte[] get(Future<byte[]> chunk) throws IOException {
+		try{
+			return chunk.get();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}catch (ExecutionException e){
+			throw new IOException(e.getCause());
+		}//end try
+	}
+
+	/**
+	 * @return the customer owning a car
+	 */
+	private long owner(long car){
+		return spread(skewed(31, car, this._customers), this._customers);
+	}
+
+	/**
+	 * @return the car of a service request
+	 */
+	private long serviced(long request){
+		return spread(skewed(41, request, this._cars), this._cars);
+	}
+
+	private long requestDay(long request){
+		return below(44, request, DAYS);
+	}
+
+	private static String vin(long car){
+		return String.format("GEN%013d", car);
+	}
+
+	private static String date(long day){
+		LocalDate date = FIRST_DAY.plusDays(day);
+		return date.getMonthValue() + "/" + date.getDayOfMonth() + "/" + date.getYear() + " 00:00";
+	}
+
+	private String lname(int column, long i){
+		return pick(NAME_STARTS, column, i) + pick(NAME_ENDS, column + 100, i);
+	}
+
+	private String pick(String[] values, int column, long i){
+		return values[(int) below(column, i, values.length)];
+	}
+
+	/**
+	 * @return a rank from 0 to n - 1, rank r drawn with a weight of about
+	 *         (r + 1)^-skew
+	 */
+	private long skewed(int column, long i, long n){
+		double u = uniform(column, i);
+		double x;
+		if (this._skew == 1.0){
+			x = Math.exp(u * Math.log(n + 1));
+		}else{
+			double e = 1 - this._skew;
+			x = Math.pow(1 + u * (Math.pow(n + 1, e) - 1), 1 / e);
+		}//end if
+		return Math.min(n - 1, Math.max(0, (long) x - 1));
+	}
+
+	/**
+	 * Method to map ranks to ids, so the heavy ranks are not all the
+	 * lowest ids.
+	 */
+	private static long spread(long rank, long n){
+		final long prime = 1000003L;
+		return n % prime == 0 ? rank : (rank * prime) % n;
+	}
+
+	private long below(int column, long i, long n){
+		return (long) (uniform(column, i) * n);
+	}
+
+	/**
+	 * @return a number in [0, 1) that depends only on the seed, the column
+	 *         and the row
+	 */
+	private double uniform(int column, long i){
+		//splitmix64
+		long z = this._seed * 0x9E3779B97F4A7C15L + column * 0xBF58476D1CE4E5B9L + i * 0x94D049BB133111EBL;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return (z >>> 11) * 0x1.0p-53;
+	}
+
+	public static void main(String[] args){
+		boolean csv = args.length >= 2 && args[0].equals("-csv");
+		if (!csv && args.length < 3) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + DataGenerator.class.getName () +
+		            " <dbname> <port> <user> | -csv <dir> [-customers N] [-mechanics N] [-cars N] [-requests N]" +
+		            " [-closed F] [-skew S] [-seed N] [-threads N]");
+			return;
+		}//end if
+
+		MechanicShop esql = null;
+		try{
+			Map<String, String> options = new HashMap<String, String>();
+			for (int i = csv ? 2 : 3; i + 1 < args.length; i += 2)
+				options.put(args[i], args[i + 1]);
+			long customers = Long.parseLong(option(options, "-customers", "100000"));
+			//proportions of phase3/code/data
+			long mechanics = Long.parseLong(option(options, "-mechanics", String.valueOf(Math.max(1, customers / 2))));
+			long cars = Long.parseLong(option(options, "-cars", String.valueOf(customers * 10)));
+			long requests = Long.parseLong(option(options, "-requests", String.valueOf(cars * 6)));
+			double closed = Double.parseDouble(option(options, "-closed", "1.0"));
+			double skew = Double.parseDouble(option(options, "-skew", "1.0"));
+			long seed = Long.parseLong(option(options, "-seed", "1"));
+			int threads = Integer.parseInt(option(options, "-threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+			if (!options.isEmpty()){
+				throw new IllegalArgumentException("Unknown options " + options.keySet());
+			}//end if
+
+			DataGenerator generator = new DataGenerator(customers, mechanics, cars, requests, closed, skew, seed, threads);
+			long start = System.nanoTime();
+			if (csv){
+				long total = generator.writeFiles(new File(args[1]));
+				double seconds = (System.nanoTime() - start) / 1e9;
+				System.out.println(String.format("Wrote %d rows in %.2f s (%.0f rows/sec)", total, seconds, total / seconds));
+			}else{
+				esql = new MechanicShop(args[0], args[1], args[2], "");
+				new BulkLoader(esql).load(generator);
+			}//end if
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if (esql != null){
+				esql.cleanup();
+			}//end if
+		}
+	}
+
+	private static String option(Map<String, String> options, String name, String otherwise){
+		String value = options.remove(name);
+		return value == null ? otherwise : value;
+	}
+}
@@ -0,0 +1,69 @@
+import java.sql.Date;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A half-open range of dates [from, to), the period of a date-bounded
+ * report.  Bounding the request tables on their date column lets the DBMS
+ * skip the partitions outside the period (see create_request_partitions()
+ * in create.sql).
+ *
+ */
+
+public class DateRange{
+	private static final Pattern YEAR = Pattern.compile("(\\d{4})");
+	private static final Pattern QUARTER = Pattern.compile("(\\d{4})[Qq]([1-4])");
+	private static final Pattern MONTH = Pattern.compile("(\\d{4})-(\\d{1,2})");
+	private static final Pattern BETWEEN = Pattern.compile("(\\S+)\\s*\\.\\.\\s*(\\S+)");
+
+	public final Date from;
+	public final Date to;
+
+	public DateRange(LocalDate from, LocalDate to){
+		if (!from.isBefore(to)){
+			throw new IllegalArgumentException("Empty period " + from + ".." + to);
+		}//end if
+		this.from = Date.valueOf(from);
+		this.to = Date.valueOf(to);
+	}
+
+	/**
+	 * Method to read a period typed by the user: a year (2016), a quarter
+	 * (2016Q3), a month (2016-07) or two dates (2016-07-01..2016-10-01, the
+	 * second one excluded).
+	 *
+	 * @param text the period, blank for none
+	 * @return the range, or null when text is blank
+	 * @throws java.lang.IllegalArgumentException when text is not a period
+	 */
+	public static DateRange parse(String text){
+		if (text == null || text.trim().isEmpty()){
+			return null;
+		}//end if
+		text = text.trim();
+		try{
+			Matcher m;
+			if ((m = YEAR.matcher(text)).matches()){
+				LocalDate from = LocalDate.of(Integer.parseInt(m.group(1)), 1, 1);
+				return new DateRange(from, from.plusYears(1));
+			}else if ((m = QUARTER.matcher(text)).matches()){
+				LocalDate from = LocalDate.of(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)) * 3 - 2, 1);
+				return new DateRange(from, from.plusMonths(3));
+			}else if ((m = MONTH.matcher(text)).matches()){
+				LocalDate from = LocalDate.of(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)), 1);
+				return new DateRange(from, from.plusMonths(1));
+			}else if ((m = BETWEEN.matcher(text)).matches()){
+				return new DateRange(LocalDate.parse(m.group(1)), LocalDate.parse(m.group(2)));
+			}//end if
+		}catch (DateTimeException e){
+			throw new IllegalArgumentException("Invalid period " + text + ": " + e.getMessage());
+		}//end try
+		throw new IllegalArgumentException("Invalid period " + text + ", expected 2016, 2016Q3, 2016-07 or 2016-07-01..2016-10-01");
+	}//end parse
+
+	public String toString(){
+		return this.from + ".." + this.to;
+	}
+}
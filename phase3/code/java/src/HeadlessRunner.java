@@ -0,0 +1,409 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class runs MechanicShop operations read from a file instead of the
+ * interactive menu.  Each line is one operation in CSV form (fields may be
+ * quoted with "), blank lines and lines starting with # are skipped:
+ *
+ *   add-customer,fname,lname,phone,address
+ *   add-mechanic,fname,lname,experience
+ *   add-car,customer_id,vin,make,model,year
+ *   insert-request,customer_id,vin,date,odometer,complain
+ *   close-request,rid,mid,date,comment,bill
+ *   report,N[,k]        (N from 6 to 10, k for report 9)
+ *   report,N,period     (N of 6, 8 or 10, period as read by DateRange)
+ *   reports[,k]         (reports 6 to 10 at once, see ReportEngine.runAll)
+ *   claim,mid[,oldest|odometer]   (claims and closes the next open request)
+ *
+ * Operations are spread over a number of worker threads.  Each worker sends
+ * its writes BATCH_SIZE operations at a time through executeBatch(); when a
+ * batch fails its operations are retried one by one so only the bad lines
+ * are reported.  Reports are run without printing their rows.  Since
+ * workers run concurrently, a line must not rely on rows written by an
+ * earlier line of the same file unless a single worker is used.
+ *
+ * At the end the latency of every kind of operation, from the time it was
+ * read to the commit of its batch, and the total throughput are printed.
+ *
+ */
+
+public class HeadlessRunner{
+	static final int BATCH_SIZE = Integer.getInteger("mechanicshop.headless.batchSize", 100);
+	//ms a worker waits for more operations before sending a partial batch
+	static final long LINGER = Long.getLong("mechanicshop.headless.linger", 5L);
+
+	private static class Op{
+		final int line;
+		final String kind;
+		final long start;
+		//statements to write, or null for a report
+		final List<Object[]> writes;
+		final int report;
+		final int k;
+		//bounds a report, or null
+		final DateRange period;
+		//mechanic and priority of a claim
+		int mid = 0;
+		String priority = null;
+
+		Op(int line, String kind, List<Object[]> writes, int report, int k){
+			this(line, kind, writes, report, k, null);
+		}
+
+		Op(int line, String kind, List<Object[]> writes, int report, int k, DateRange period){
+			this.line = line;
+			this.kind = kind;
+			this.start = System.nanoTime();
+			this.writes = writes;
+			this.report = report;
+			this.k = k;
+			this.period = period;
+		}
+	}
+
+	//tells a worker to finish
+	private static final Op END = new Op(0, "end", null, 0, 0);
+
+	private final MechanicShop _esql;
+	private final int _workers;
+	private final Map<String, LatencyStats> _stats = new TreeMap<String, LatencyStats>();
+
+	public HeadlessRunner(MechanicShop esql, int workers){
+		this._esql = esql;
+		this._workers = workers;
+	}
+
+	/**
+	 * Method to run every operation of a file and print the statistics.
+	 *
+	 * @param file the operations file, or - for standard input
+	 * @return the number of operations that failed
+	 * @throws java.io.IOException when the file cannot be read
+	 * @throws java.lang.InterruptedException when interrupted while waiting
+	 */
+	public int run(String file) throws IOException, InterruptedException {
+		final BlockingQueue<Op> queue = new ArrayBlockingQueue<Op>(Math.max(1024, BATCH_SIZE * this._workers * 4));
+		Thread[] workers = new Thread[this._workers];
+		for (int i = 0; i < workers.length; ++i){
+			workers[i] = new Thread("MechanicShop-headless-" + (i + 1)){
+				public void run(){
+					work(queue);
+				}
+			};
+			workers[i].start();
+		}//end for
+
+		long start = System.nanoTime();
+		int parseErrors = 0;
+		BufferedReader reader = file.equals("-")
+			? new BufferedReader(new InputStreamReader(System.in))
+			: new BufferedReader(new FileReader(file));
+		try{
+			String text;
+			int line = 0;
+			while ((text = reader.readLine()) != null){
+				++line;
+				text = text.trim();
+				if (text.isEmpty() || text.startsWith("#")){
+					continue;
+				}//end if
+				try{
+					queue.put(parse(line, split(text)));
+				}catch (Exception e){
+					System.err.println("line " + line + ": " + e.getMessage());
+					++parseErrors;
+				}//end try
+			}//end while
+		}finally{
+			reader.close();
+			for (int i = 0; i < workers.length; ++i)
+				queue.put(END);
+			for (Thread worker : workers)
+				worker.join();
+		}//end try
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return printStats(seconds) + parseErrors;
+	}//end run
+
+	/**
+	 * Method to turn the fields of one line into an operation, reserving
+	 * the keys of the rows it inserts.
+	 */
+	private Op parse(int line, List<String> f) throws SQLException {
+		String kind = f.get(0);
+		List<Object[]> writes = new ArrayList<Object[]>();
+		if (kind.equals("add-customer")){
+			need(f, 5);
+			int id = this._esql.getNextId(IdAllocator.CUSTOMER_SEQ);
+			writes.add(new Object[]{ "INSERT INTO Customer VALUES(?, ?, ?, ?, ?)", id, f.get(1), f.get(2), f.get(3), f.get(4) });
+		}else if (kind.equals("add-mechanic")){
+			need(f, 4);
+			int id = this._esql.getNextId(IdAllocator.MECHANIC_SEQ);
+			writes.add(new Object[]{ "INSERT INTO Mechanic VALUES(?, ?, ?, ?)", id, f.get(1), f.get(2), Integer.parseInt(f.get(3)) });
+		}else if (kind.equals("add-car")){
+			need(f, 6);
+			int id = this._esql.getNextId(IdAllocator.OWNS_SEQ);
+			writes.add(new Object[]{ "INSERT INTO Car VALUES(?, ?, ?, ?)", f.get(2), f.get(3), f.get(4), Integer.parseInt(f.get(5)) });
+			writes.add(new Object[]{ "INSERT INTO Owns VALUES(?, ?, ?)", id, Integer.parseInt(f.get(1)), f.get(2) });
+		}else if (kind.equals("insert-request")){
+			need(f, 6);
+			int rid = this._esql.getNextId(IdAllocator.SERVICE_REQUEST_SEQ);
+			writes.add(new Object[]{ "INSERT INTO Service_Request VALUES(?, ?, ?, ?, ?, ?)", rid,
+				Integer.parseInt(f.get(1)), f.get(2), f.get(3), Integer.parseInt(f.get(4)), f.get(5) });
+		}else if (kind.equals("close-request")){
+			need(f, 6);
+			int wid = this._esql.getNextId(IdAllocator.CLOSED_REQUEST_SEQ);
+			writes.add(new Object[]{ "INSERT INTO Closed_Request VALUES(?, ?, ?, ?, ?, ?)", wid,
+				Integer.parseInt(f.get(1)), Integer.parseInt(f.get(2)), f.get(3), f.get(4), Integer.parseInt(f.get(5)) });
+		}else if (kind.equals("report")){
+			need(f, 2);
+			int report = Integer.parseInt(f.get(1));
+			if (report < 6 || report > 10){
+				throw new IllegalArgumentException("No report " + report);
+			}//end if
+			int k = report == 9 ? Integer.parseInt(f.size() > 2 ? f.get(2) : "10") : 0;
+			DateRange period = report == 6 || report == 8 || report == 10 ? DateRange.parse(f.size() > 2 ? f.get(2) : null) : null;
+			return new Op(line, "report-" + report + (period == null ? "" : "-period"), null, report, k, period);
+		}else if (kind.equals("reports")){
+			int k = Integer.parseInt(f.size() > 1 ? f.get(1) : "10");
+			return new Op(line, kind, null, 0, k);
+		}else if (kind.equals("claim")){
+			need(f, 2);
+			Op op = new Op(line, kind, null, 0, 0);
+			op.mid = Integer.parseInt(f.get(1));
+			String priority = f.size() > 2 ? f.get(2) : "oldest";
+			if (priority.equals("oldest")){
+				op.priority = WorkQueue.OLDEST_FIRST;
+			}else if (priority.equals("odometer")){
+				op.priority = WorkQueue.HIGHEST_ODOMETER_FIRST;
+			}else{
+				throw new IllegalArgumentException("Unknown priority " + priority);
+			}//end if
+			return op;
+		}else{
+			throw new IllegalArgumentException("Unknown operation " + kind);
+		}//end if
+		return new Op(line, kind, writes, 0, 0);
+	}//end parse
+
+	/**
+	 * Method run by each worker thread until it takes END from the queue.
+	 */
+	private void work(BlockingQueue<Op> queue){
+		List<Op> pending = new ArrayList<Op>();
+		try{
+			while (true){
+				Op op = pending.isEmpty() ? queue.take() : queue.poll(LINGER, TimeUnit.MILLISECONDS);
+				if (op == null){
+					flush(pending);
+					continue;
+				}//end if
+				if (op == END){
+					flush(pending);
+					return;
+				}//end if
+				if (op.writes == null){
+					flush(pending);
+					if (op.priority != null){
+						claim(op);
+					}else{
+						report(op);
+					}//end if
+					continue;
+				}//end if
+				pending.add(op);
+				if (pending.size() >= BATCH_SIZE){
+					flush(pending);
+				}//end if
+			}//end while
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}//end try
+	}//end work
+
+	/**
+	 * Method to send the pending writes in one batch, falling back to one
+	 * batch per operation when it fails.
+	 */
+	private void flush(List<Op> pending){
+		if (pending.isEmpty()){
+			return;
+		}//end if
+		try{
+			this._esql.executeBatch(toBatch(pending));
+			long now = System.nanoTime();
+			for (Op op : pending)
+				record(op, now, null);
+		}catch (SQLException e){
+			for (Op op : pending){
+				List<Op> single = new ArrayList<Op>();
+				single.add(op);
+				try{
+					this._esql.executeBatch(toBatch(single));
+					record(op, System.nanoTime(), null);
+				}catch (SQLException error){
+					record(op, System.nanoTime(), error);
+				}//end try
+			}//end for
+		}//end try
+		pending.clear();
+	}//end flush
+
+	private void report(Op op){
+		try{
+			ReportEngine reports = this._esql.getReports();
+			if (op.report == 0){
+				reports.runAll(op.k);
+				record(op, System.nanoTime(), null);
+				return;
+			}//end if
+			String sql;
+			if (op.period != null){
+				switch (op.report){
+					case 6: sql = MechanicShop.QUERY_BILL_LESS_THAN_100_BETWEEN; break;
+					case 8: sql = MechanicShop.QUERY_CARS_BEFORE_1995_BETWEEN; break;
+					default: sql = MechanicShop.QUERY_CUSTOMERS_BY_TOTAL_BILL_BETWEEN; break;
+				}//end switch
+			}else{
+				switch (op.report){
+					case 6: sql = reports.billLessThan100(); break;
+					case 7: sql = reports.moreThan20Cars(); break;
+					case 8: sql = MechanicShop.QUERY_CARS_BEFORE_1995; break;
+					case 9: sql = reports.kMostServicedCars(); break;
+					default: sql = reports.customersByTotalBill(); break;
+				}//end switch
+			}//end if
+			RowHandler count = new RowHandler(){
+				public boolean handle(Row row){
+					return true;
+				}
+			};
+			if (op.period != null){
+				this._esql.stream(sql, count, op.period.from, op.period.to);
+			}else if (op.report == 9){
+				this._esql.stream(sql, count, op.k);
+			}else{
+				this._esql.stream(sql, count);
+			}//end if
+			record(op, System.nanoTime(), null);
+		}catch (SQLException e){
+			record(op, System.nanoTime(), e);
+		}//end try
+	}//end report
+
+	/**
+	 * Method to claim the next open request for a mechanic and close it
+	 * right away, as a mechanic working through the queue would.
+	 */
+	private void claim(Op op){
+		try{
+			ServiceRequest request = this._esql.getQueue().claim(op.mid, op.priority);
+			if (request != null){
+				int wid = this._esql.getNextId(IdAllocator.CLOSED_REQUEST_SEQ);
+				//closed the day after the request, as CloseServiceRequest requires
+				Date closed = Date.valueOf(request.date.toLocalDate().plusDays(1));
+				this._esql.update("INSERT INTO Closed_Request VALUES(?, ?, ?, ?, ?, ?)", wid, request.rid, op.mid,
+					closed, "Closed from the queue", 100);
+			}//end if
+			record(op, System.nanoTime(), null);
+		}catch (SQLException e){
+			record(op, System.nanoTime(), e);
+		}//end try
+	}//end claim
+
+	private synchronized void record(Op op, long now, SQLException error){
+		LatencyStats stats = this._stats.get(op.kind);
+		if (stats == null){
+			stats = new LatencyStats();
+			this._stats.put(op.kind, stats);
+		}//end if
+		if (error != null){
+			stats.addError();
+			System.err.println("line " + op.line + ": " + error.getMessage());
+		}else{
+			stats.add(now - op.start);
+		}//end if
+	}
+
+	/**
+	 * @return the number of failed operations
+	 */
+	private synchronized int printStats(double seconds){
+		System.out.println(String.format("%-16s %8s %7s %9s %9s %9s %9s %9s",
+			"operation", "count", "errors", "mean ms", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+		long total = 0;
+		int errors = 0;
+		for (Map.Entry<String, LatencyStats> entry : this._stats.entrySet()){
+			LatencyStats s = entry.getValue();
+			System.out.println(String.format("%-16s %8d %7d %9.3f %9.3f %9.3f %9.3f %9.3f",
+				entry.getKey(), s.getCount(), s.getErrors(), s.getMeanMillis(),
+				s.getPercentileMillis(0.50), s.getPercentileMillis(0.95), s.getPercentileMillis(0.99),
+				s.getPercentileMillis(1.0)));
+			total += s.getCount();
+			errors += s.getErrors();
+		}//end for
+		System.out.println(String.format("%d operations (%d failed) in %.2f s with %d workers, %.0f ops/sec",
+			total, errors, seconds, this._workers, total / seconds));
+		return errors;
+	}//end printStats
+
+	private static Batch toBatch(List<Op> ops){
+		Batch batch = new Batch();
+		for (Op op : ops){
+			for (Object[] write : op.writes)
+				batch.add((String) write[0], Arrays.copyOfRange(write, 1, write.length));
+		}//end for
+		return batch;
+	}
+
+	private static void need(List<String> fields, int count){
+		if (fields.size() < count){
+			throw new IllegalArgumentException(fields.get(0) + " needs " + (count - 1) + " fields");
+		}//end if
+	}
+
+	/**
+	 * Method to split a CSV line.  A field may be quoted with " to contain
+	 * commas; "" inside quotes stands for one ".
+	 */
+	static List<String> split(String line){
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); ++i){
+			char c = line.charAt(i);
+			if (quoted){
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"'){
+					field.append('"');
+					++i;
+				}else if (c == '"'){
+					quoted = false;
+				}else{
+					field.append(c);
+				}//end if
+			}else if (c == '"'){
+				quoted = true;
+			}else if (c == ','){
+				fields.add(field.toString().trim());
+				field.setLength(0);
+			}else{
+				field.append(c);
+			}//end if
+		}//end for
+		fields.add(field.toString().trim());
+		return fields;
+	}//end split
+}
@@ -0,0 +1,67 @@
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class hands out primary keys for the MechanicShop tables.  Keys come
+ * from Postgres sequences that are declared with INCREMENT BY BLOCK_SIZE, so
+ * a single nextval() reserves a whole block of ids for this process and the
+ * following BLOCK_SIZE - 1 inserts need no round trip at all.  Because the
+ * reservation is done by the sequence, concurrent sessions never receive the
+ * same id.
+ *
+ */
+
+public class IdAllocator{
+	//must match the INCREMENT BY of the sequences in create.sql
+	public static final int BLOCK_SIZE = 100;
+
+	public static final String CUSTOMER_SEQ = "customer_id_seq";
+	public static final String MECHANIC_SEQ = "mechanic_id_seq";
+	public static final String OWNS_SEQ = "owns_ownership_id_seq";
+	public static final String SERVICE_REQUEST_SEQ = "service_request_rid_seq";
+	public static final String CLOSED_REQUEST_SEQ = "closed_request_wid_seq";
+
+	private final MechanicShop _esql;
+	//sequence name -> {next id to hand out, first id past the reserved block}
+	private final Map<String, int[]> _blocks = new HashMap<String, int[]>();
+
+	public IdAllocator(MechanicShop esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to obtain the next unused id of a sequence.  A new block is
+	 * reserved from the DBMS only when the current one is used up.
+	 *
+	 * @param sequence name of the DB sequence
+	 * @return an id no other session will receive
+	 * @throws java.sql.SQLException when failed to reserve a new block
+	 */
+	public synchronized int next(String sequence) throws SQLException {
+		int[] block = this._blocks.get(sequence);
+		if (block == null || block[0] >= block[1]){
+			int start = reserve(sequence);
+			block = new int[] { start, start + BLOCK_SIZE };
+			this._blocks.put(sequence, block);
+		}//end if
+		return block[0]++;
+	}//end next
+
+	/**
+	 * @param sequence name of the DB sequence
+	 * @return the last id handed out by next(), -1 when none was yet
+	 */
+	public synchronized int last(String sequence){
+		int[] block = this._blocks.get(sequence);
+		return block == null ? -1 : block[0] - 1;
+	}
+
+	private int reserve(String sequence) throws SQLException {
+		LongColumn result = this._esql.queryLongs("SELECT nextval(?)", sequence);
+		if (result.size() == 0){
+			throw new SQLException("Sequence " + sequence + " returned no value");
+		}//end if
+		return (int) result.get(0);
+	}//end reserve
+}
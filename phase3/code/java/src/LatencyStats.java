@@ -0,0 +1,65 @@
+import java.util.Arrays;
+
+/**
+ * This class collects the latencies of one kind of operation and reports
+ * their mean and percentiles.  Every sample is kept, so it is meant for
+ * runs of a bounded number of operations.  It is not thread safe.
+ *
+ */
+
+public class LatencyStats{
+	private long[] _nanos = new long[64];
+	private int _count = 0;
+	private int _errors = 0;
+	//_nanos[0.._count) is sorted
+	private boolean _sorted = true;
+
+	/**
+	 * @param nanos the latency of one successful operation
+	 */
+	public void add(long nanos){
+		if (this._count == this._nanos.length){
+			this._nanos = Arrays.copyOf(this._nanos, this._count * 2);
+		}//end if
+		this._nanos[this._count++] = nanos;
+		this._sorted = false;
+	}
+
+	public void addError(){
+		++this._errors;
+	}
+
+	public int getCount(){
+		return this._count;
+	}
+
+	public int getErrors(){
+		return this._errors;
+	}
+
+	public double getMeanMillis(){
+		if (this._count == 0){
+			return 0.0;
+		}//end if
+		long sum = 0;
+		for (int i = 0; i < this._count; ++i)
+			sum += this._nanos[i];
+		return sum / 1e6 / this._count;
+	}
+
+	/**
+	 * @param p the fraction of samples at or below the result, 1.0 for the max
+	 * @return the latency in ms, 0 when there are no samples
+	 */
+	public double getPercentileMillis(double p){
+		if (this._count == 0){
+			return 0.0;
+		}//end if
+		if (!this._sorted){
+			Arrays.sort(this._nanos, 0, this._count);
+			this._sorted = true;
+		}//end if
+		int at = (int) Math.ceil(p * this._count) - 1;
+		return this._nanos[Math.max(0, at)] / 1e6;
+	}
+}
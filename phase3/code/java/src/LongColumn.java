@@ -0,0 +1,51 @@
+import java.util.Arrays;
+
+/**
+ * This class holds one long column of a query result in a primitive array,
+ * e.g. the sequence values or counts returned by MechanicShop.queryLongs(),
+ * without an object per value.  NULL values read as 0.
+ *
+ */
+
+public class LongColumn{
+	private long[] _values;
+	private int _size = 0;
+
+	public LongColumn(int capacity){
+		this._values = new long[Math.max(1, capacity)];
+	}
+
+	public void add(long value){
+		if (this._size == this._values.length){
+			this._values = Arrays.copyOf(this._values, this._size * 2);
+		}//end if
+		this._values[this._size++] = value;
+	}
+
+	public int size(){
+		return this._size;
+	}
+
+	public long get(int i){
+		if (i >= this._size){
+			throw new IndexOutOfBoundsException(i + " >= " + this._size);
+		}//end if
+		return this._values[i];
+	}
+
+	public boolean contains(long value){
+		for (int i = 0; i < this._size; ++i){
+			if (this._values[i] == value){
+				return true;
+			}//end if
+		}//end for
+		return false;
+	}
+
+	/**
+	 * @return a copy of the values, sized to fit
+	 */
+	public long[] toArray(){
+		return Arrays.copyOf(this._values, this._size);
+	}
+}
@@ -0,0 +1,27 @@
+import java.sql.SQLException;
+
+/**
+ * One row of the Mechanic table.
+ *
+ */
+
+public class Mechanic{
+	//reads the columns of Mechanic in create.sql order, e.g. from SELECT M.* FROM Mechanic M
+	public static final RowMapper<Mechanic> MAPPER = new RowMapper<Mechanic>(){
+		public Mechanic map(Row row) throws SQLException {
+			return new Mechanic(row.getInt(1), row.getString(2), row.getString(3), row.getInt(4));
+		}
+	};
+
+	public final int id;
+	public final String fname;
+	public final String lname;
+	public final int experience;
+
+	public Mechanic(int id, String fname, String lname, int experience){
+		this.id = id;
+		this.fname = fname;
+		this.lname = lname;
+		this.experience = experience;
+	}
+}
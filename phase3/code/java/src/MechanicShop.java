@@ -11,19 +11,27 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.PrintStream;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -32,9 +40,110 @@ import java.util.Scanner;
  */
 
 public class MechanicShop{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//number of prepared statements kept open per connection
+	static final int STATEMENT_CACHE_SIZE = Integer.getInteger("mechanicshop.statementCacheSize", 64);
+	//executions of a statement before the driver prepares it on the server
+	static final int PREPARE_THRESHOLD = Integer.getInteger("mechanicshop.prepareThreshold", 1);
+
+	//rows fetched per round trip by streamed queries
+	static final int FETCH_SIZE = Integer.getInteger("mechanicshop.fetchSize", 500);
+	//queries of the menu operations, also run by QueryPlanAdvisor
+	static final String QUERY_CUSTOMERS_BY_LNAME = "SELECT C.id, C.fname FROM Customer C WHERE C.lname = ?";
+	static final String[] TABLES_CUSTOMERS_BY_LNAME = { "Customer" };
+	//every owned car, paired with each of its requests (rid is NULL when it has none)
+	static final String QUERY_CARS_OF_CUSTOMER = "SELECT O.car_vin, SR.rid FROM Owns O LEFT JOIN Service_Request SR ON SR.car_vin = O.car_vin AND SR.customer_id = O.customer_id WHERE O.customer_id = ?";
+	static final String[] TABLES_CARS_OF_CUSTOMER = { "Owns", "Service_Request" };
+	//primary key lookups, the request through request_date() of create.sql so it is not looked up in
+	//every partition; takes the mechanic twice, then the request twice; closed_after is NULL when the
+	//mechanic has not closed the request yet
+	static final String QUERY_VERIFY_CLOSE =
+		"SELECT (SELECT COUNT(*) FROM Mechanic M WHERE M.id = ?) AS mechanic, " +
+		"CASE WHEN D.date IS NULL THEN 0 ELSE 1 END AS request, " +
+		"(SELECT CASE WHEN CR.date > D.date THEN 1 ELSE 0 END FROM Closed_Request CR " +
+		"WHERE CR.mid = ? AND CR.rid = ? LIMIT 1) AS closed_after " +
+		"FROM request_date(?) AS D(date)";
+	//reads QUERY_VERIFY_CLOSE as {mechanic, request, closed_after or -1 when NULL}
+	static final RowMapper<int[]> VERIFY_CLOSE = new RowMapper<int[]>(){
+		public int[] map (Row row) throws SQLException {
+			int closedAfter = row.getInt (3);
+			return new int[] { row.getInt (1), row.getInt (2), row.wasNull () ? -1 : closedAfter };
+		}
+	};
+	//closes a request only when the closing date, read by the DBMS, is after the request date:
+	//wid, rid, mid, closing date, comment, bill, then the closing date again and the request date
+	static final String INSERT_CLOSED_AFTER = "INSERT INTO Closed_Request SELECT ?, ?, ?, ?::date, ?, ? WHERE ?::date > ?";
+	//search options, most relevant first; the expressions match the GIN and GiST indexes of create.sql
+	static final String QUERY_SEARCH_COMPLAINTS = "SELECT S.rid, S.customer_id, S.car_vin, S.date, S.complain, ts_rank(to_tsvector('english', S.complain), Q.query) AS rank FROM Service_Request S, plainto_tsquery('english', ?) AS Q(query) WHERE to_tsvector('english', S.complain) @@ Q.query ORDER BY rank DESC, S.rid LIMIT ?";
+	static final String QUERY_SEARCH_COMMENTS = "SELECT CR.wid, CR.rid, CR.mid, CR.date, CR.comment, CR.bill, ts_rank(to_tsvector('english', CR.comment), Q.query) AS rank FROM Closed_Request CR, plainto_tsquery('english', ?) AS Q(query) WHERE to_tsvector('english', CR.comment) @@ Q.query ORDER BY rank DESC, CR.wid LIMIT ?";
+	//SQLSTATE of similarity() and % when pg_trgm is not installed
+	static final String UNDEFINED_FUNCTION = "42883";
+	//takes the name three times, then the limit
+	static final String QUERY_CUSTOMERS_LIKE_LNAME = "SELECT C.id, C.fname, C.lname, C.phone, round(similarity(rtrim(C.lname), ?)::numeric, 2) AS similarity FROM Customer C WHERE rtrim(C.lname) % ? ORDER BY rtrim(C.lname) <-> ?, C.id LIMIT ?";
+	//rows printed by the search options
+	static final int SEARCH_LIMIT = Integer.getInteger("mechanicshop.search.limit", 20);
+	static final String QUERY_BILL_LESS_THAN_100 = "SELECT C.fname, C.lname, CR.date, CR.comment, CR.bill FROM Customer AS C, Closed_Request AS CR, Service_Request AS S WHERE S.customer_id = C.id AND S.rid = CR.rid AND CR.bill < 100";
+	static final String QUERY_MORE_THAN_20_CARS = "SELECT C.fname, C.lname, COUNT(*) FROM Owns AS O INNER JOIN Customer AS C ON O.customer_id = C.id GROUP BY c.id HAVING COUNT(*) > 20";
+	static final String QUERY_CARS_BEFORE_1995 = "SELECT s.rid, S.customer_id, C.vin, C.make, C.model, C.year, S.odometer FROM Car AS C, Service_Request AS S WHERE C.vin = S.car_vin AND C.year < 1995 AND S.odometer < 50000";
+	static final String QUERY_K_MOST_SERVICED_CARS = "SELECT C.make, C.model, C.year, C.vin, A.total_requests FROM Car AS C, (SELECT S.car_vin, COUNT(*) AS total_requests FROM Service_Request AS S GROUP BY S.car_vin) AS A WHERE C.vin = A.car_vin ORDER BY A.total_requests DESC LIMIT ?";
+	static final String QUERY_CUSTOMERS_BY_TOTAL_BILL = "SELECT C.fname, C.lname, A.total_bill FROM Customer AS C, (SELECT B.customer_id, SUM(B.bill) AS total_bill FROM (SELECT S.customer_id, CR.rid, CR.bill FROM Closed_Request AS CR INNER JOIN Service_Request AS S ON s.rid = CR.rid) AS B GROUP BY B.customer_id) AS A WHERE A.customer_id = C.id ORDER BY total_bill DESC";
+	//reports 6, 8 and 10 over a period, taking its first day and the day after it; only the partitions of the period are read
+	static final String QUERY_BILL_LESS_THAN_100_BETWEEN = QUERY_BILL_LESS_THAN_100 + " AND CR.date >= ? AND CR.date < ?";
+	static final String QUERY_CARS_BEFORE_1995_BETWEEN = QUERY_CARS_BEFORE_1995 + " AND S.date >= ? AND S.date < ?";
+	static final String QUERY_CUSTOMERS_BY_TOTAL_BILL_BETWEEN = "SELECT C.fname, C.lname, A.total_bill FROM Customer AS C, (SELECT S.customer_id, SUM(CR.bill) AS total_bill FROM Closed_Request AS CR INNER JOIN Service_Request AS S ON S.rid = CR.rid WHERE CR.date >= ? AND CR.date < ? GROUP BY S.customer_id) AS A WHERE A.customer_id = C.id ORDER BY total_bill DESC";
+
+	//lookup results kept by the cache, and ms they stay valid
+	static final int CACHE_SIZE = Integer.getInteger("mechanicshop.cache.size", 1024);
+	static final long CACHE_TTL = Long.getLong("mechanicshop.cache.ttl", 60000L);
+	//connections kept open by the pool
+	static final int POOL_MIN_SIZE = Integer.getInteger("mechanicshop.pool.minSize", 1);
+	static final int POOL_MAX_SIZE = Integer.getInteger("mechanicshop.pool.maxSize", 8);
+	//ms before an idle connection above the minimum is closed
+	static final long POOL_IDLE_TIMEOUT = Long.getLong("mechanicshop.pool.idleTimeout", 600000L);
+	//ms to wait for a free connection before giving up
+	static final long POOL_ACQUIRE_TIMEOUT = Long.getLong("mechanicshop.pool.acquireTimeout", 30000L);
+	//ms a connection may be held before it is reported as leaked, 0 disables
+	static final long POOL_LEAK_THRESHOLD = Long.getLong("mechanicshop.pool.leakThreshold", 0L);
+	//ms of idleness after which a connection is validated before use
+	static final long POOL_VALIDATION_INTERVAL = Long.getLong("mechanicshop.pool.validationInterval", 5000L);
+
+	//background tasks of the async API: running at once, and queued beyond that
+	static final int ASYNC_THREADS = Integer.getInteger("mechanicshop.async.threads", POOL_MAX_SIZE);
+	static final int ASYNC_QUEUE = Integer.getInteger("mechanicshop.async.queue", 1000);
+
+	//isolation of inTransaction(): read committed, repeatable read or serializable
+	static final int TX_ISOLATION = isolation(System.getProperty("mechanicshop.tx.isolation", "read committed"));
+	//runs of a transaction before a retryable failure is given up, and ms
+	//waited before the first retry, doubled for each further one
+	static final int TX_ATTEMPTS = Integer.getInteger("mechanicshop.tx.attempts", 4);
+	static final long TX_BACKOFF = Long.getLong("mechanicshop.tx.backoff", 10L);
+	//serialization failure and deadlock; keys come from sequences, so a
+	//unique violation is a real duplicate that no retry can fix
+	static final String[] TX_RETRY_STATES = { "40001", "40P01" };
+
+	//ms from which a statement is logged as slow, 0 disables
+	static final long SLOW_QUERY_MS = Long.getLong("mechanicshop.slowQueryMs", 500L);
+	//statement shapes tracked by the metrics
+	static final int METRICS_SHAPES = Integer.getInteger("mechanicshop.metrics.shapes", 500);
+	//where the metrics are printed on exit: a file, - for standard out, or none
+	static final String METRICS_DUMP = System.getProperty("mechanicshop.metrics.dump", "-");
+
+	//pool of physical database connections, each with its statement cache
+	private ConnectionPool _pool = null;
+	//runs the queries of the async API
+	private final QueryExecutor _async = new QueryExecutor(ASYNC_THREADS, ASYNC_QUEUE);
+	//timings of every statement
+	private final QueryMetrics _metrics = new QueryMetrics(SLOW_QUERY_MS, METRICS_SHAPES);
+	//results of slow-changing lookups
+	private final QueryCache _cache = new QueryCache(CACHE_SIZE, CACHE_TTL);
+	//picks summary tables or live queries for the reports
+	private final ReportEngine _reports = new ReportEngine(this, ReportEngine.LIVE, ReportEngine.REFRESH_INTERVAL, ReportEngine.PAGE_SIZE, ReportEngine.COLUMNAR);
+	//hands out open service requests to mechanics
+	private final WorkQueue _queue = new WorkQueue(this);
+	//hands out primary keys from the DB sequences
+	private final IdAllocator _ids = new IdAllocator(this);
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	//menu choice leaving the program
+	static final int EXIT = 15;
 	
 	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
 		System.out.print("Connecting to database...");
@@ -43,8 +152,21 @@ public class MechanicShop{
 			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			Properties props = new Properties();
+			props.setProperty("user", user);
+			props.setProperty("password", passwd);
+			// switch to a named server-side statement after this many executions
+			props.setProperty("prepareThreshold", Integer.toString(PREPARE_THRESHOLD));
+			// let the server infer the type of string parameters, e.g. dates
+			props.setProperty("stringtype", "unspecified");
+			// send a batch of INSERTs as multi-row INSERTs
+			props.setProperty("reWriteBatchedInserts", "true");
+
+			// open the pool of physical connections
+	        this._pool = new ConnectionPool(url, props, POOL_MIN_SIZE, POOL_MAX_SIZE,
+	        	POOL_IDLE_TIMEOUT, POOL_ACQUIRE_TIMEOUT, POOL_LEAK_THRESHOLD,
+	        	POOL_VALIDATION_INTERVAL, STATEMENT_CACHE_SIZE);
+	        this._metrics.register();
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -53,6 +175,389 @@ public class MechanicShop{
 		}
 	}
 	
+	/**
+	 * Method to execute a parameterized update SQL statement, e.g.
+	 * update("INSERT INTO Mechanic VALUES(?, ?, ?, ?)", id, fname, lname, 5)
+	 * 
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 */
+	public int update (String sql, Object... params) throws SQLException {
+		PooledConnection conn = this._pool.acquire ();
+		long start = System.nanoTime ();
+		try{
+			int rowCount = conn.prepare (sql, params).executeUpdate ();
+			this._metrics.record (sql, params, System.nanoTime () - start, rowCount, 0, null);
+			this._cache.invalidateWrite (sql);
+			return rowCount;
+		}catch (SQLException e){
+			this._metrics.record (sql, params, System.nanoTime () - start, 0, 0, e);
+			conn.failed (sql, e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+		}
+	}
+
+	/**
+	 * Method to execute the statements of a batch in one transaction, using
+	 * JDBC batching so each SQL string costs one round trip.  Either every
+	 * statement is applied or none.  Serialization failures and deadlocks
+	 * are retried as in inTransaction(Transaction).
+	 *
+	 * @param batch the queued statements
+	 * @return the number of statements executed
+	 * @throws java.sql.SQLException when a statement failed
+	 */
+	public int executeBatch (final Batch batch) throws SQLException {
+		return inTransaction (new Transaction<Integer>(){
+			public Integer run (UnitOfWork work) throws SQLException {
+				return work.batch (batch);
+			}
+		});
+	}
+
+	/**
+	 * Method to run several statements as one transaction, e.g.
+	 * <pre>
+	 * final int id = esql.getNextId(IdAllocator.OWNS_SEQ);
+	 * esql.inTransaction(new Transaction&lt;Void&gt;(){
+	 *     public Void run(UnitOfWork work) throws SQLException {
+	 *         work.update("INSERT INTO Car VALUES(?, ?, ?, ?)", vin, make, model, year);
+	 *         work.update("INSERT INTO Owns VALUES(?, ?, ?)", id, customer, vin);
+	 *         return null;
+	 *     }
+	 * });
+	 * </pre>
+	 * The transaction is committed once, when the body returns, and rolled
+	 * back when it throws.  On a serialization failure or a deadlock the
+	 * whole body is run again, up to TX_ATTEMPTS times, after a randomized
+	 * wait doubling from TX_BACKOFF ms.  Other failures, e.g. a duplicate
+	 * key, are thrown at once.
+	 *
+	 * @param body the statements of the transaction
+	 * @return the result of the body
+	 * @throws java.sql.SQLException when the transaction failed for good
+	 */
+	public <T> T inTransaction (Transaction<T> body) throws SQLException {
+		return inTransaction (TX_ISOLATION, body);
+	}
+
+	/**
+	 * Method to run several statements as one transaction at the given
+	 * isolation level, see inTransaction(Transaction).
+	 *
+	 * @param isolation a Connection.TRANSACTION_* level
+	 * @param body the statements of the transaction
+	 * @return the result of the body
+	 * @throws java.sql.SQLException when the transaction failed for good
+	 */
+	public <T> T inTransaction (int isolation, Transaction<T> body) throws SQLException {
+		for (int attempt = 1; ; ++attempt){
+			PooledConnection conn = this._pool.acquire ();
+			Connection c = conn.getConnection ();
+			int previous = c.getTransactionIsolation ();
+			try{
+				c.setAutoCommit (false);
+				if (isolation != previous)
+					c.setTransactionIsolation (isolation);
+				UnitOfWork work = new UnitOfWork (conn, this._metrics);
+				T result = body.run (work);
+				c.commit ();
+				for (String sql : work.getWrites ())
+					this._cache.invalidateWrite (sql);
+				return result;
+			}catch (SQLException e){
+				try{
+					c.rollback ();
+				}catch (SQLException ignored){
+					// the connection is checked on release.
+				}//end try
+				String state = e.getSQLState ();
+				boolean retry = state != null && attempt < TX_ATTEMPTS;
+				if (retry){
+					retry = false;
+					for (String retryState : TX_RETRY_STATES)
+						retry |= state.equals (retryState);
+				}//end if
+				if (!retry)
+					throw e;
+			}finally{
+				try{
+					if (isolation != previous && !c.isClosed ()){
+						c.setAutoCommit (true);
+						c.setTransactionIsolation (previous);
+					}//end if
+				}catch (SQLException ignored){
+					// the connection is checked on release.
+				}//end try
+				this._pool.release (conn);
+			}
+			try{
+				//randomized so colliding transactions do not collide again
+				long backoff = TX_BACKOFF << (attempt - 1);
+				Thread.sleep (backoff / 2 + (long) (Math.random () * backoff));
+			}catch (InterruptedException e){
+				Thread.currentThread ().interrupt ();
+				throw new SQLException ("Interrupted while retrying a transaction", e);
+			}//end try
+		}//end for
+	}//end inTransaction
+
+	/**
+	 * Method to execute a parameterized query and return the results as a
+	 * list of records. Each record in turn is a list of attribute values
+	 * 
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> query (String sql, Object... params) throws SQLException {
+		PooledConnection conn = this._pool.acquire ();
+		long start = System.nanoTime ();
+		try{
+			ResultSet rs = conn.prepare (sql, params).executeQuery ();
+			int numCol = rs.getMetaData ().getColumnCount ();
+			List<List<String>> result  = new ArrayList<List<String>>(); 
+			long bytes = 0;
+			while (rs.next()){
+				List<String> record = new ArrayList<String>(); 
+				for (int i=1; i<=numCol; ++i){
+					String value = rs.getString (i);
+					if (value != null)
+						bytes += value.length ();
+					record.add(value); 
+				}//end for
+				result.add(record); 
+			}//end while 
+			rs.close ();
+			this._metrics.record (sql, params, System.nanoTime () - start, result.size (), bytes, null);
+			return result;
+		}catch (SQLException e){
+			this._metrics.record (sql, params, System.nanoTime () - start, 0, 0, e);
+			conn.failed (sql, e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+		}
+	}
+
+	/**
+	 * Method to execute a parameterized query in the background, so that
+	 * independent lookups can run concurrently on separate pooled
+	 * connections.
+	 *
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 * @return a future completed with the query result as a list of records,
+	 *         failed at once when ASYNC_QUEUE queries are already waiting
+	 */
+	public CompletableFuture<List<List<String>>> queryAsync (final String sql, final Object... params) {
+		return this._async.submit (new Callable<List<List<String>>>(){
+			public List<List<String>> call () throws SQLException {
+				return query (sql, params);
+			}
+		});
+	}
+
+	/**
+	 * Method to execute a parameterized update SQL statement in the
+	 * background.
+	 *
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 * @return a future completed with the number of rows affected, failed
+	 *         at once when ASYNC_QUEUE statements are already waiting
+	 */
+	public CompletableFuture<Integer> updateAsync (final String sql, final Object... params) {
+		return this._async.submit (new Callable<Integer>(){
+			public Integer call () throws SQLException {
+				return update (sql, params);
+			}
+		});
+	}
+
+	/**
+	 * Method to execute a parameterized query through the lookup cache.  A
+	 * cached result is returned without touching the DBMS; it is dropped when
+	 * this process writes one of the given tables or after CACHE_TTL ms.
+	 *
+	 * @param tables the tables the query reads
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 * @return the query result as a read-only list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> cachedQuery (String[] tables, String sql, Object... params) throws SQLException {
+		List<List<String>> result = this._cache.get (sql, params);
+		if (result == null){
+			result = this._cache.put (tables, sql, params, query (sql, params));
+		}//end if
+		return result;
+	}
+
+	/**
+	 * Method to execute a parameterized query through the lookup cache and
+	 * map its rows to objects, see cachedQuery().
+	 *
+	 * @param tables the tables the query reads
+	 * @param sql the SQL string with ? placeholders
+	 * @param mapper builds one object per row; the objects are shared by
+	 *        every caller, so they should be immutable
+	 * @param params the values of the placeholders
+	 * @return the mapped rows as a read-only list
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public <T> List<T> cachedQueryAs (String[] tables, String sql, RowMapper<T> mapper, Object... params) throws SQLException {
+		List<T> result = this._cache.get (mapper, sql, params);
+		if (result == null){
+			result = this._cache.put (mapper, tables, sql, params, queryAs (sql, mapper, params));
+		}//end if
+		return result;
+	}
+
+	/**
+	 * Method to execute a parameterized query and map each row to an object,
+	 * e.g. queryAs("SELECT C.* FROM Car C WHERE C.year < ?", Car.MAPPER, 1995).
+	 * Values are read with their own types, not as strings.
+	 *
+	 * @param sql the SQL string with ? placeholders
+	 * @param mapper builds one object per row
+	 * @param params the values of the placeholders
+	 * @return the mapped rows, in result order
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public <T> List<T> queryAs (String sql, final RowMapper<T> mapper, Object... params) throws SQLException {
+		final List<T> result = new ArrayList<T>();
+		stream (sql, new RowHandler(){
+			public boolean handle (Row row) throws SQLException {
+				result.add (mapper.map (row));
+				return true;
+			}
+		}, params);
+		return result;
+	}
+
+	/**
+	 * Method to execute a parameterized query returning one int column, e.g.
+	 * ids, into a primitive array.
+	 *
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 * @return the values of the first column, in result order
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public IntColumn queryInts (String sql, Object... params) throws SQLException {
+		final IntColumn column = new IntColumn (16);
+		stream (sql, new RowHandler(){
+			public boolean handle (Row row) throws SQLException {
+				column.add (row.getInt (1));
+				return true;
+			}
+		}, params);
+		return column;
+	}
+
+	/**
+	 * Method to execute a parameterized query returning one bigint column,
+	 * e.g. counts or sequence values, into a primitive array.
+	 *
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 * @return the values of the first column, in result order
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public LongColumn queryLongs (String sql, Object... params) throws SQLException {
+		final LongColumn column = new LongColumn (16);
+		stream (sql, new RowHandler(){
+			public boolean handle (Row row) throws SQLException {
+				column.add (row.getLong (1));
+				return true;
+			}
+		}, params);
+		return column;
+	}
+
+	/**
+	 * Method to execute a parameterized query and pass its rows to a handler
+	 * one at a time.  The rows are fetched through a cursor, FETCH_SIZE at a
+	 * time, so large results are processed in constant memory and the first
+	 * rows arrive before the query has finished.
+	 *
+	 * @param sql the SQL string with ? placeholders
+	 * @param handler the callback receiving each row
+	 * @param params the values of the placeholders
+	 * @return the number of rows passed to the handler
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public long stream (String sql, RowHandler handler, Object... params) throws SQLException {
+		PooledConnection conn = this._pool.acquire ();
+		long start = System.nanoTime ();
+		try{
+			//the driver only uses a cursor inside a transaction
+			conn.getConnection ().setAutoCommit (false);
+			PreparedStatement stmt = conn.prepare (sql, params);
+			stmt.setFetchSize (FETCH_SIZE);
+			ResultSet rs = stmt.executeQuery ();
+			Row row = new Row (rs);
+			try{
+				while (row.next () && handler.handle (row)){
+				}//end while
+			}finally{
+				rs.close ();
+			}
+			conn.getConnection ().commit ();
+			//includes the time spent in the handler
+			this._metrics.record (sql, params, System.nanoTime () - start, row.getNumber (), row.getBytes (), null);
+			return row.getNumber ();
+		}catch (SQLException e){
+			this._metrics.record (sql, params, System.nanoTime () - start, 0, 0, e);
+			conn.failed (sql, e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+		}
+	}
+
+	/**
+	 * Method to execute a parameterized query and output the results to
+	 * standard out.  Rows are printed through a buffer flushed once per
+	 * fetched chunk, so the first rows show before the query has finished.
+	 * 
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int queryAndPrint (String sql, Object... params) throws SQLException {
+		final PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+		try{
+			return (int) stream (sql, new RowHandler(){
+				public boolean handle (Row row) throws SQLException {
+					int numCol = row.getColumnCount ();
+					if (row.getNumber () == 1){
+						for(int i = 1; i <= numCol; i++){
+							out.print(row.getColumnName(i) + "\t");
+					    }
+					    out.println();
+					}
+					for (int i=1; i<=numCol; ++i)
+						out.print (row.getString (i) + "\t");
+					out.println ();
+					//show each fetched chunk as soon as it arrives
+					if (row.getNumber () % FETCH_SIZE == 0)
+						out.flush ();
+					return true;
+				}
+			}, params);
+		}finally{
+			out.flush ();
+		}
+	}
+
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
@@ -61,14 +566,7 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when update failed
 	 * */
 	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
-
-		// close the instruction
-	    stmt.close ();
+		update (sql);
 	}//end executeUpdate
 
 	/**
@@ -81,37 +579,7 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+		return queryAndPrint (query);
 	}
 	
 	/**
@@ -124,31 +592,7 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+		return query (query);
 	}//end executeQueryAndReturnResult
 	
 	/**
@@ -160,63 +604,153 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+		PooledConnection conn = this._pool.acquire ();
+		long start = System.nanoTime ();
+		try{
+			ResultSet rs = conn.prepare (query).executeQuery ();
 
-		int rowCount = 0;
+			int rowCount = 0;
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			//iterates through the result set and count nuber of results.
+			if(rs.next()){
+				rowCount++;
+			}//end while
+			rs.close ();
+			this._metrics.record (query, null, System.nanoTime () - start, rowCount, 0, null);
+			return rowCount;
+		}catch (SQLException e){
+			this._metrics.record (query, null, System.nanoTime () - start, 0, 0, e);
+			conn.failed (query, e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+		}
 	}
 	
 	/**
-	 * Method to fetch the last value from sequence. This
-	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
+	 * Method to fetch the last key handed out for a sequence by
+	 * getNextId().  Keys come from blocks reserved ahead of time, so the
+	 * currval() of the sequence is the start of the latest block, not the
+	 * last key used, and is only set in the session that reserved it.
 	 * 
 	 * @param sequence name of the DB sequence
-	 * @return current value of a sequence
-	 * @throws java.sql.SQLException when failed to execute the query
+	 * @return the last key given by getNextId(), -1 when none was yet
 	 */
 	
-	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+	public int getCurrSeqVal(String sequence) {
+		return this._ids.last(sequence);
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to obtain the next primary key for a table.  Keys are taken
+	 * from blocks reserved on the DB sequence, so most calls do not touch
+	 * the DBMS and concurrent sessions never receive the same key.
+	 *
+	 * @param sequence name of the DB sequence
+	 * @return the next unused key
+	 * @throws java.sql.SQLException when failed to reserve a new block
+	 */
+	public int getNextId(String sequence) throws SQLException {
+		return this._ids.next(sequence);
+	}
+
+	/**
+	 * Method to obtain the connection pool, e.g. to read its metrics.
+	 *
+	 * @return the pool serving this MechanicShop
+	 */
+	public ConnectionPool getPool(){
+		return this._pool;
+	}
+
+	/**
+	 * Method to obtain the lookup cache, e.g. to read its counters.
+	 *
+	 * @return the cache used by cachedQuery()
+	 */
+	public QueryCache getCache(){
+		return this._cache;
+	}
+
+	/**
+	 * @return the Connection.TRANSACTION_* level named by an isolation
+	 */
+	static int isolation (String name){
+		String level = name.trim ().toLowerCase ().replace ('_', ' ');
+		if (level.equals ("serializable"))
+			return Connection.TRANSACTION_SERIALIZABLE;
+		if (level.equals ("repeatable read"))
+			return Connection.TRANSACTION_REPEATABLE_READ;
+		if (level.equals ("read committed"))
+			return Connection.TRANSACTION_READ_COMMITTED;
+		throw new IllegalArgumentException ("Unknown isolation level " + name);
+	}
+
+	/**
+	 * Method to obtain the statement metrics, e.g. to print them.
+	 *
+	 * @return the metrics of every statement run by this MechanicShop
+	 */
+	public QueryMetrics getMetrics(){
+		return this._metrics;
+	}
+
+	/**
+	 * Method to obtain the report engine choosing the SQL of reports 6, 7, 9
+	 * and 10.
+	 *
+	 * @return the report engine of this MechanicShop
+	 */
+	public ReportEngine getReports(){
+		return this._reports;
+	}
+
+	/**
+	 * @return the open request queue of this MechanicShop
+	 */
+	public WorkQueue getQueue(){
+		return this._queue;
+	}
+
+	/**
+	 * Method to close the physical connections if they are open, and print
+	 * the statement metrics to METRICS_DUMP.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+		this._async.shutdown ();
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
+		this._metrics.unregister ();
+		if (this._metrics.getStatements () > 0 && !METRICS_DUMP.equals ("none")){
+			try{
+				PrintStream out = METRICS_DUMP.equals ("-") ? System.out : new PrintStream (new FileOutputStream (METRICS_DUMP));
+				out.println ("Statement metrics:");
+				this._metrics.dump (out);
+				if (out != System.out)
+					out.close ();
+				else
+					out.flush ();
+			}catch (IOException e){
+				System.err.println ("Unable to write the statement metrics: " + e.getMessage ());
+			}//end try
+		}//end if
 	}//end cleanup
 
 	/**
 	 * The main execution method
 	 * 
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
+	 *        and optionally -load <csv dir> to reseed the tables and exit, or
+	 *        -batch <file> [workers] to run the operations of a file and exit
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		boolean load = args.length == 5 && args[3].equals("-load");
+		boolean batch = (args.length == 5 || args.length == 6) && args[3].equals("-batch");
+		if (args.length != 3 && !load && !batch) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + MechanicShop.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [-load <csv dir> | -batch <file> [workers]]");
 			return;
 		}//end if
 		
@@ -240,7 +774,25 @@ public class MechanicShop{
 			String user = args[2];
 			
 			esql = new MechanicShop (dbname, dbport, user, "");
+			try{
+				new PartitionManager (esql).ensure ();
+			}catch (SQLException e){
+				System.err.println ("Unable to create the coming request partitions: " + e.getMessage ());
+			}//end try
 			
+			if (load){
+				new BulkLoader (esql).load (new File (args[4]));
+				return;
+			}//end if
+			if (batch){
+				int workers = args.length == 6 ? Integer.parseInt(args[5]) : 1;
+				int failed = new HeadlessRunner (esql, workers).run (args[4]);
+				if (failed > 0){
+					System.err.println(failed + " operations failed");
+				}//end if
+				return;
+			}//end if
+
 			boolean keepon = true;
 			while(keepon){
 				System.out.println("MAIN MENU");
@@ -255,7 +807,11 @@ public class MechanicShop{
 				System.out.println("8. ListCarsBefore1995With50000Milles");
 				System.out.println("9. ListKCarsWithTheMostServices");
 				System.out.println("10. ListCustomersInDescendingOrderOfTheirTotalBill");
-				System.out.println("11. < EXIT");
+				System.out.println("11. SearchServiceComplaints");
+				System.out.println("12. SearchClosingComments");
+				System.out.println("13. FindCustomersBySimilarName");
+				System.out.println("14. ClaimNextServiceRequest");
+				System.out.println("15. < EXIT");
 				
 				/*
 				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
@@ -271,7 +827,11 @@ public class MechanicShop{
 					case 8: ListCarsBefore1995With50000Milles(esql); break;
 					case 9: ListKCarsWithTheMostServices(esql); break;
 					case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
-					case 11: keepon = false; break;
+					case 11: SearchServiceComplaints(esql); break;
+					case 12: SearchClosingComments(esql); break;
+					case 13: FindCustomersBySimilarName(esql); break;
+					case 14: ClaimNextServiceRequest(esql); break;
+					case EXIT: keepon = false; break;
 				}
 			}
 		}catch(Exception e){
@@ -295,7 +855,11 @@ public class MechanicShop{
 		do {
 			System.out.print("Please make your choice: ");
 			try { // read the integer, parse it and break.
-				input = Integer.parseInt(in.readLine());
+				String line = in.readLine();
+				if (line == null){
+					return EXIT; // end of piped input
+				}//end if
+				input = Integer.parseInt(line.trim());
 				break;
 			}catch (Exception e) {
 				System.out.println("Your input is invalid!");
@@ -304,12 +868,44 @@ public class MechanicShop{
 		}while (true);
 		return input;
 	}//end readChoice
+
+	/**
+	 * Method to read the period of a date-bounded report, see DateRange.
+	 *
+	 * @return the period, or null for all time
+	 */
+	public static DateRange readPeriod() throws IOException {
+		do {
+			System.out.print("Period, e.g. 2016, 2016Q3, 2016-07 (Enter for all time): ");
+			String line = in.readLine();
+			try {
+				return DateRange.parse(line);
+			}catch (IllegalArgumentException e) {
+				System.out.println(e.getMessage());
+			}//end try
+		}while (true);
+	}//end readPeriod
+
+	/**
+	 * Method to read an integer typed on its own line.  All input goes
+	 * through the one BufferedReader so that no reader holds back lines
+	 * buffered ahead of another when the input is piped.
+	 *
+	 * @return the integer read
+	 * @throws java.io.IOException when the input is closed
+	 * @throws java.lang.NumberFormatException when the line is not an integer
+	 */
+	public static int readInt() throws IOException {
+		String line = in.readLine();
+		if (line == null){
+			throw new IOException("End of input");
+		}//end if
+		return Integer.parseInt(line.trim());
+	}//end readInt
 	
 	public static void AddCustomer(MechanicShop esql){//1
 		try{
-                        String query_Customer = "SELECT id FROM Customer";
-                        List<List<String>> Customer_Database = esql.executeQueryAndReturnResult(query_Customer);
-                        int cid = Customer_Database.size();
+                        int cid = esql.getNextId(IdAllocator.CUSTOMER_SEQ);
                         System.out.print("First Name: ");
                         String fname = in.readLine();
                         System.out.print("Last Name: ");
@@ -318,8 +914,7 @@ public class MechanicShop{
                         String phone = in.readLine();
                         System.out.print("Current Address: ");
                         String address = in.readLine();
-                        String insert = "INSERT INTO Customer VALUES(" + Integer.toString(cid) + ", \'" + fname + "\', \'" + lname + "\', \'" + phone + "\', \'" + address + "\')";
-                        esql.executeUpdate(insert);
+                        esql.update("INSERT INTO Customer VALUES(?, ?, ?, ?, ?)", cid, fname, lname, phone, address);
                         System.out.println("New Customer Info Added");
                 }
                 catch(Exception E) {
@@ -329,18 +924,14 @@ public class MechanicShop{
 	
 	public static void AddMechanic(MechanicShop esql){//2
 		try{
-                        String query_Mechanic = "SELECT id FROM Mechanic";
-                        List<List<String>> Mechanic_Database = esql.executeQueryAndReturnResult(query_Mechanic);
-                        int mid = Mechanic_Database.size();
-                        Scanner input_Mec_info = new Scanner(System.in);
+                        int mid = esql.getNextId(IdAllocator.MECHANIC_SEQ);
                         System.out.print("First Name: ");
                         String fname = in.readLine();
                         System.out.print("Last Name: ");
                         String lname = in.readLine();
                         System.out.print("Year Experience: ");
-                        int experience = input_Mec_info.nextInt();
-                        String insert = "INSERT INTO Mechanic VALUES(" + Integer.toString(mid) + ", \'" + fname + "\', \'" + lname + "\', " + Integer.toString(experience) + ")";
-                        esql.executeUpdate(insert);
+                        int experience = readInt();
+                        esql.update("INSERT INTO Mechanic VALUES(?, ?, ?, ?)", mid, fname, lname, experience);
                         System.out.println("New Mechanic Info Added");
                 }
                 catch(Exception E) {
@@ -350,9 +941,9 @@ public class MechanicShop{
 	
 	public static void AddCar(MechanicShop esql){//3
 		try{
-                        Scanner input_Car_info = new Scanner(System.in);
 			System.out.print("How many vehicles do you have: ");
-                        int num = input_Car_info.nextInt();
+                        int num = readInt();
+			final List<Object[]> cars = new ArrayList<Object[]>();
 			for(int i = 1; i <= num; i++)
                         {
                         	System.out.print("Vehicle ID Number: ");
@@ -362,21 +953,29 @@ public class MechanicShop{
                         	System.out.print("Vehicle Model: ");
                         	String model = in.readLine();
                         	System.out.print("Vehicle Year: ");
-                        	int year = input_Car_info.nextInt();
-                        	String insert = "INSERT INTO Car VALUES(\'" + vin + "\', \'" + make + "\', \'" + model + "\', " + Integer.toString(year) + ")";
-                        	esql.executeUpdate(insert);
-                        	System.out.println("New Vehicle Info Added");
-				String query_Owner = "SELECT ownership_id FROM Owns";
-                        	List<List<String>> Owner_Database = esql.executeQueryAndReturnResult(query_Owner);
-                        	int ownership_id = Owner_Database.size();
-                        	Scanner input_Owner = new Scanner(System.in);
+                        	int year = readInt();
                         	System.out.print("Input the ID of owner: ");
-                        	int customer_id = input_Owner.nextInt();
-                        	String insert2 = "INSERT INTO Owns VALUES(" + Integer.toString(ownership_id) + ", " + Integer.toString(customer_id) + ", \'" + vin + "\')";
-                        	esql.executeUpdate(insert2);
-                        	System.out.println("......");
-                        	System.out.println("New Ownership Info Added");
+                        	int customer_id = readInt();
+                        	cars.add(new Object[] { vin, make, model, year, customer_id });
 			}
+			// keys reserved up front, so a retried transaction reuses them
+			final int[] ownership_ids = new int[cars.size()];
+			for (int i = 0; i < ownership_ids.length; i++)
+				ownership_ids[i] = esql.getNextId(IdAllocator.OWNS_SEQ);
+			// all vehicles and ownerships in one transaction
+			esql.inTransaction(new Transaction<Integer>(){
+				public Integer run(UnitOfWork work) throws SQLException {
+					Batch batch = new Batch();
+					for (int i = 0; i < ownership_ids.length; i++){
+						Object[] car = cars.get(i);
+						batch.add("INSERT INTO Car VALUES(?, ?, ?, ?)", car[0], car[1], car[2], car[3]);
+						batch.add("INSERT INTO Owns VALUES(?, ?, ?)", ownership_ids[i], car[4], car[0]);
+					}
+					return work.batch(batch);
+				}
+			});
+			System.out.println("......");
+			System.out.println(num + " New Vehicle and Ownership Info Added");
                 }
                 catch(Exception E) {
                         System.err.println(E.getMessage());
@@ -387,85 +986,63 @@ public class MechanicShop{
 		try{
 			System.out.print("Enter your last name: ");
                         String Lname = in.readLine();
-                        String Query_Customer1 = "SELECT C1.id FROM Customer C1 WHERE C1.lname = \'" + Lname + "\'";
-                        List<List<String>> Customer_Database1 = esql.executeQueryAndReturnResult(Query_Customer1);
-                        int numTuple = Customer_Database1.size();
+                        List<Customer> Customer_Database = esql.cachedQueryAs(TABLES_CUSTOMERS_BY_LNAME, QUERY_CUSTOMERS_BY_LNAME, Customer.ID_FNAME, Lname);
+                        int numTuple = Customer_Database.size();
                         if(numTuple > 0){
                                 System.out.println("Here are the customers that match your search:");
-                                String Query_Customer2 = "SELECT C2.fname FROM Customer C2 WHERE C2.lname = \'" + Lname + "\'";
-                                List<List<String>> Customer_Database2 = esql.executeQueryAndReturnResult(Query_Customer2);
                                 for(int i = 0; i < numTuple; i++){
-                                        System.out.println(Customer_Database2.get(i).get(0) + Lname + " (ID: " + Customer_Database1.get(i).get(0) + ")");
+                                        System.out.println(Customer_Database.get(i).fname + Lname + " (ID: " + Customer_Database.get(i).id + ")");
                                 }
-				Scanner input_id = new Scanner(System.in);
                                 System.out.print("Choose one customer by entering the given ID to search service requests: ");
-                                int id = input_id.nextInt(); 
+                                int id = readInt(); 
                                 int match = 0;
                                 for(int j = 0; j < numTuple; j++){
-                                        if(id == Integer.parseInt(Customer_Database1.get(j).get(0))){
+                                        if(id == Customer_Database.get(j).id){
                                                 match++;
                                         }
                                 }
 				if(match > 0){
-					String Query_Owns = "SELECT O.car_vin FROM Owns O WHERE O.customer_id = \'" + id + "\'";
-                                        List<List<String>> Owns_Database = esql.executeQueryAndReturnResult(Query_Owns);
-                                        String Query_Service_Request1 = "SELECT SR1.rid, SR1.car_vin FROM Service_Request SR1 WHERE SR1.customer_id = \'" + id + "\'";
-                                        List<List<String>> Request_Database1 = esql.executeQueryAndReturnResult(Query_Service_Request1);
-                                        int numOwned = Owns_Database.size();
-                                        int numTuple2 = Request_Database1.size();
-                                        int numRegistered = 0;
+					List<List<String>> Owns_Database = esql.cachedQuery(TABLES_CARS_OF_CUSTOMER, QUERY_CARS_OF_CUSTOMER, id);
+                                        Set<String> ownedVehicle = new HashSet<String>();
                                         List<String> registeredVehicle = new ArrayList<String>();
-					List<Integer> ServiceID = new ArrayList<Integer>();
-                                        for(int a = 0; a < numOwned; a++){
-                                                for(int b = 0; b < numTuple2; b++){
-                                                        if(Long.parseLong(Owns_Database.get(a).get(0).substring(6)) == Long.parseLong(Request_Database1.get(b).get(1).substring(6))){
-                                                                numRegistered++;
-                                                                registeredVehicle.add(Request_Database1.get(b).get(1));
-								ServiceID.add(Integer.parseInt(Request_Database1.get(b).get(0)));
-                                                        }
+					List<String> ServiceID = new ArrayList<String>();
+                                        for(int a = 0; a < Owns_Database.size(); a++){
+                                                String vin = Owns_Database.get(a).get(0);
+                                                ownedVehicle.add(vin);
+                                                if(Owns_Database.get(a).get(1) != null){
+                                                        registeredVehicle.add(vin);
+								ServiceID.add(Owns_Database.get(a).get(1));
                                                 }
                                         }
+                                        int numRegistered = registeredVehicle.size();
                                         if(numRegistered > 0){
                                                 System.out.println("Here are the vehicles that you registered for a service:");
                                                 for(int k = 0; k < registeredVehicle.size(); k++){
-                                                        System.out.println(registeredVehicle.get(k) + " (rid: " + Integer.toString(ServiceID.get(k)) + ")");
+                                                        System.out.println(registeredVehicle.get(k) + " (rid: " + ServiceID.get(k) + ")");
                                                 }
                                         }
 					else if(numRegistered == 0){
                                                 System.out.println("Result not found! Request a service for your new vehicle");
-                                                Scanner input_Service_Request = new Scanner(System.in);
                                                 System.out.print("How many vehicles are you registering for services: ");
-                                                int numVehicle = input_Service_Request.nextInt();
+                                                int numVehicle = readInt();
+                                                final List<Object[]> requests = new ArrayList<Object[]>();
+                                                final List<Object[]> cars = new ArrayList<Object[]>();
                                                 for(int l = 1; l <= numVehicle; l++){
-                                                        String Query_Service_Request2 = "SELECT SR2.rid FROM Service_Request SR2";
-                                                        List<List<String>> Request_Database2 = esql.executeQueryAndReturnResult(Query_Service_Request2);
-                                                        int rid = Request_Database2.size();
                                                         System.out.println("Vehicle " + l);
                                                         System.out.print("Vehicle ID Number: ");
                                                         String car_vin = in.readLine();
-							int owning = 0;
-                                                        for(int c = 0; c < numOwned; c++)
-                                                        {
-                                                                if(Long.parseLong(car_vin.substring(6)) == Long.parseLong(Owns_Database.get(c).get(0).substring(6)))
-                                                                {
-                                                                        owning++;
-                                                                }
-                                                        }
-							if(owning > 0){
+							if(ownedVehicle.contains(car_vin)){
                                                         	System.out.print("Request Date: ");
                                                         	String date = in.readLine();
                                                         	System.out.print("Vehicle Odometer: ");
-                                                        	int odometer = input_Service_Request.nextInt();
+                                                        	int odometer = readInt();
                                                         	System.out.print("Service Purpose: ");
                                                         	String complain = in.readLine();
-                                                        	String insert = "INSERT INTO Service_Request VALUES(" + Integer.toString(rid) + ", " + Integer.toString(id) + ", \'" + car_vin + "\', \'" + date + "\', " + Integer.toString(odometer) + ", \'" + complain + "\')";
-                                                        	esql.executeUpdate(insert);
-                                                        	System.out.println("New Service Initiated!");
+                                                        	requests.add(new Object[] { car_vin, date, odometer, complain });
 							}
-							else if(owning == 0){
+							else{
                                                                 System.out.println("The VIN of your vehicle does not match our record!");
 								System.out.println("Please enter the info of your vehicle");
-                                				Scanner input_Car_info = new Scanner(System.in);
                                 				System.out.print("Vehicle ID Number: ");
                                 				String vin = in.readLine();
                                 				System.out.print("Vehicle Make: ");
@@ -473,20 +1050,37 @@ public class MechanicShop{
                                 				System.out.print("Vehicle Model: ");
                                 				String model = in.readLine();
                                 				System.out.print("Vehicle Year: ");
-                                				int year = input_Car_info.nextInt();
-                                				String insert2 = "INSERT INTO Car VALUES(\'" + vin + "\', \'" + make + "\', \'" + model + "\', " + Integer.toString(year) + ")";
-                                				esql.executeUpdate(insert2);
-                                				System.out.println("New Car Info Added");
+                                				int year = readInt();
 								System.out.println("Recording the info of the ownership");
-                                				String query_Owner = "SELECT ownership_id FROM Owns";
-                                				List<List<String>> Owner_Database = esql.executeQueryAndReturnResult(query_Owner);
-                                				int ownership_id = Owner_Database.size();
-                                				String insert3 = "INSERT INTO Owns VALUES(" + Integer.toString(ownership_id) + ", " + Integer.toString(id) + ", \'" + vin + "\')";
-                                				esql.executeUpdate(insert3);
-                                				System.out.println("......");
-                                				System.out.println("New Ownership Info Added");
+                                				cars.add(new Object[] { vin, make, model, year });
                                                         }
                                                 }
+						// keys reserved up front, so a retried transaction reuses them
+						final int[] ownership_ids = new int[cars.size()];
+						for (int i = 0; i < ownership_ids.length; i++)
+							ownership_ids[i] = esql.getNextId(IdAllocator.OWNS_SEQ);
+						final int[] rids = new int[requests.size()];
+						for (int i = 0; i < rids.length; i++)
+							rids[i] = esql.getNextId(IdAllocator.SERVICE_REQUEST_SEQ);
+						final int customer = id;
+						// requests, cars and ownerships in one transaction
+						int added = esql.inTransaction(new Transaction<Integer>(){
+							public Integer run(UnitOfWork work) throws SQLException {
+								Batch batch = new Batch();
+								for (int i = 0; i < ownership_ids.length; i++){
+									Object[] car = cars.get(i);
+									batch.add("INSERT INTO Car VALUES(?, ?, ?, ?)", car[0], car[1], car[2], car[3]);
+									batch.add("INSERT INTO Owns VALUES(?, ?, ?)", ownership_ids[i], customer, car[0]);
+								}
+								for (int i = 0; i < rids.length; i++){
+									Object[] request = requests.get(i);
+									batch.add("INSERT INTO Service_Request VALUES(?, ?, ?, ?, ?, ?)", rids[i], customer, request[0], request[1], request[2], request[3]);
+								}
+								return work.batch(batch);
+							}
+						});
+						System.out.println("......");
+						System.out.println(added + " New Service, Car and Ownership Records Added");
                                         }
 				}
 				else if(match == 0){
@@ -495,10 +1089,23 @@ public class MechanicShop{
                         }
                         else if(numTuple == 0)
                         {
-                                System.out.println("Result not found! Please enter your info");
-                                String query_Customer = "SELECT id FROM Customer";
-                                List<List<String>> Customer_Database = esql.executeQueryAndReturnResult(query_Customer);
-                                int cid = Customer_Database.size();
+                                System.out.println("Result not found!");
+                                List<List<String>> similar = new ArrayList<List<String>>();
+                                try{
+                                        similar = esql.query(QUERY_CUSTOMERS_LIKE_LNAME, Lname, Lname, Lname, 5);
+                                }
+                                catch(SQLException e){
+                                        // the hint is optional, carry on without it
+                                        System.out.println(similarNameError(e));
+                                }
+                                if(similar.size() > 0){
+                                        System.out.println("Customers with a similar name (choose 13 in the menu to search again):");
+                                        for(List<String> customer : similar){
+                                                System.out.println(customer.get(1).trim() + " " + customer.get(2).trim() + " (ID: " + customer.get(0) + ")");
+                                        }
+                                }
+                                System.out.println("Please enter your info");
+                                int cid = esql.getNextId(IdAllocator.CUSTOMER_SEQ);
                                 System.out.print("First Name: ");
                                 String fname = in.readLine();
                                 System.out.print("Last Name: ");
@@ -507,8 +1114,7 @@ public class MechanicShop{
                                 String phone = in.readLine();
                                 System.out.print("Current Address: ");
                                 String address = in.readLine();
-                                String insert = "INSERT INTO Customer VALUES(" + Integer.toString(cid) + ", \'" + fname + "\', \'" + lname + "\', \'" + phone + "\', \'" + address + "\')";
-                                esql.executeUpdate(insert);
+                                esql.update("INSERT INTO Customer VALUES(?, ?, ?, ?, ?)", cid, fname, lname, phone, address);
                                 System.out.println("New Customer Info Added");
                         }
 		}
@@ -519,109 +1125,47 @@ public class MechanicShop{
 	
 	public static void CloseServiceRequest(MechanicShop esql) throws Exception{//5
 		try{
-			Scanner input_verify = new Scanner(System.in);
-                        System.out.print("Enter your employee ID: ");
-                        int Eid = input_verify.nextInt();
-                        String Query_Mechanic = "SELECT M.id FROM Mechanic M";
-                        List<List<String>> Mechanic_Database = esql.executeQueryAndReturnResult(Query_Mechanic);
-                        int numTuple1 = Mechanic_Database.size();
-                        int exist1 = 0;
-                        for(int i = 0; i < numTuple1; i++){
-                                if(Integer.parseInt(Mechanic_Database.get(i).get(0)) == Eid){
-                                        exist1++;
-                                }
-                        }
-                        if(exist1 > 0){
-                                System.out.println("The mechanic exists!");
-                        }
-			else{
-                                System.out.println("The mechanic does not exist!");
-                        }
-                        System.out.print("Enter the service request ID: ");
-                        int SRid = input_verify.nextInt();
-                        String Query_Service_Request1 = "SELECT SR1.rid FROM Service_Request SR1";
-                        List<List<String>> Request_Database1 = esql.executeQueryAndReturnResult(Query_Service_Request1);
-                        int numTuple2 = Request_Database1.size();
-                        int exist2 = 0;
-                        for(int j = 0; j < numTuple2; j++){
-                                if(Integer.parseInt(Request_Database1.get(j).get(0)) == SRid){
-                                        exist2++;
-                                }
-                        }
-                        if(exist2 > 0){
-                                System.out.println("The request exists!");
-                        }
-			else{
-                                System.out.println("The request does not exist!");
-                        }
-                        String Query_Close_Request = "SELECT CR.date FROM Closed_Request CR WHERE CR.mid = \'" + Eid + "\' AND CR.rid = \'" + SRid + "\'";
-                        List<List<String>> Close_Database = esql.executeQueryAndReturnResult(Query_Close_Request);
-			int check = Close_Database.size();
-                        if(check > 0){
+			System.out.print("Enter your employee ID: ");
+			int Eid = readInt();
+			System.out.print("Enter the service request ID: ");
+			int SRid = readInt();
+			int[] verify = esql.queryAs(QUERY_VERIFY_CLOSE, VERIFY_CLOSE, Eid, Eid, SRid, SRid).get(0);
+			boolean mechanicExists = verify[0] > 0;
+			boolean requestExists = verify[1] > 0;
+			int closedAfter = verify[2];
+			System.out.println(mechanicExists ? "The mechanic exists!" : "The mechanic does not exist!");
+			System.out.println(requestExists ? "The request exists!" : "The request does not exist!");
+			if(closedAfter >= 0){
 				System.out.println("Verifying Closed Date......");
-                                System.out.println("......");
-				String Cdate = Close_Database.get(0).get(0);
-				if(exist1 > 0 && exist2 > 0){
-					String Query_Close_Request1 = "SELECT CR1.mid FROM Closed_Request CR1";
-                        	        List<List<String>> Close_Database1 = esql.executeQueryAndReturnResult(Query_Close_Request1);
-                        	        int numTuple3 = Close_Database1.size();
-                        	        int match1 = 0;
-                        	        for(int k = 0; k < numTuple3; k++){
-                        	                if(Integer.parseInt(Close_Database1.get(k).get(0)) == Eid){
-                        	                        match1++;
-                        	                }
-                        	        }
-                        	        String Query_Close_Request2 = "SELECT CR2.rid FROM Closed_Request CR2";
-                                	List<List<String>> Close_Database2 = esql.executeQueryAndReturnResult(Query_Close_Request2);
-                                	int numTuple4 = Close_Database2.size();
-                                	int match2 = 0;
-                                	for(int l = 0; l < numTuple4; l++){
-                                	        if(Integer.parseInt(Close_Database2.get(l).get(0)) == SRid){
-                                	                match2++;
-                                	        }
-                                	}
-                                	String Query_Service_Request2 = "SELECT SR2.date FROM Service_Request SR2 WHERE SR2.rid = \'" + SRid + "\'";
-                                	List<List<String>> Request_Database2 = esql.executeQueryAndReturnResult(Query_Service_Request2);
-                                	String Rdate = Request_Database2.get(0).get(0);
-                                        int compareL1 = Integer.parseInt(Rdate.substring(0,3));//year
-                                        int compareR1 = Integer.parseInt(Cdate.substring(0,3));//year
-                                        int compareL2 = Integer.parseInt(Rdate.substring(5,6));//month
-                                        int compareR2 = Integer.parseInt(Cdate.substring(5,6));//month
-                                        int compareL3 = Integer.parseInt(Rdate.substring(8));//day
-                                        int compareR3 = Integer.parseInt(Cdate.substring(8));//day
-                                	if(compareL1 < compareR1 || (compareL1 == compareR1 && compareL2 < compareR2) || (compareL1 == compareR1 && compareL2 == compareR2 && compareL3 < compareR3)){
-                                	        if(match1 > 0 && match2 > 0){
-                                	                System.out.println("The closed request has been created!");
-                                	        }
-                                	}
-					else{
-                                	        System.out.println("Invalid closed date! Please recreate the closed record");
-                                	}
-				}	
+				System.out.println("......");
+				if(closedAfter > 0){
+					System.out.println("The closed request has been created!");
+				}
+				else{
+					System.out.println("Invalid closed date! Please recreate the closed record");
+				}
+			}
+			else if(!mechanicExists || !requestExists){
+				System.out.println("ID not found! Quit back to menu");
+			}
+			else{
+				System.out.println("Recording Checking...");
+				System.out.println("Data does not match!");
+				System.out.println("The closed request does not exist! Please create a new closed request");
+				int wid = esql.getNextId(IdAllocator.CLOSED_REQUEST_SEQ);
+				System.out.print("Request ID: ");
+				System.out.println(SRid);
+				System.out.print("Mechanic ID: ");
+				System.out.println(Eid);
+				System.out.print("Closed Date: ");
+				String date = in.readLine();
+				System.out.print("Service Comment: ");
+				String comment = in.readLine();
+				System.out.print("Service Bill: $");
+				int bill = readInt();
+				esql.update("INSERT INTO Closed_Request VALUES(?, ?, ?, ?, ?, ?)", wid, SRid, Eid, date, comment, bill);
+				System.out.println("New Closed Record Added");
 			}
-			else if(check == 0){                                
-                                System.out.println("Recording Checking...");
-                                System.out.println("Data does not match!");                             
-                                System.out.println("The closed request does not exist! Please create a new closed request");
-                                String query_Closed_Request = "SELECT wid FROM Closed_Request";
-                                List<List<String>> Closed_Request_Database = esql.executeQueryAndReturnResult(query_Closed_Request);
-                                int wid = Closed_Request_Database.size() + 1;
-                                Scanner input_Closed = new Scanner(System.in);
-                                System.out.print("Request ID: ");
-                                int rid = wid;
-				System.out.println(rid);
-                                System.out.print("Mechanic ID: ");
-                                int mid = input_Closed.nextInt();
-                                System.out.print("Closed Date: ");
-                                String date = in.readLine();
-                                System.out.print("Service Comment: ");
-                                String comment = in.readLine();
-                                System.out.print("Service Bill: $");
-                                int bill = input_Closed.nextInt();
-                                String insert = "INSERT INTO Closed_Request VALUES(" + Integer.toString(wid) + ", " + Integer.toString(rid) + ", " + Integer.toString(mid) + ", \'" + date + "\', \'" + comment + "\', " + Integer.toString(bill) + ")";
-                                esql.executeUpdate(insert);
-                                System.out.println("New Closed Record Added");                                
-                        }
 		}
 		catch(Exception E) {
                         System.err.println(E.getMessage());
@@ -630,8 +1174,7 @@ public class MechanicShop{
 	
 	public static void ListCustomersWithBillLessThan100(MechanicShop esql){//6
 		try{
-			String query = "SELECT C.fname, C.lname, CR.date, CR.comment, CR.bill FROM Customer AS C, Closed_Request AS CR, Service_Request AS S WHERE S.customer_id = C.id AND S.rid = CR.rid AND CR.bill < 100";
-			esql.executeQueryAndPrintResult(query);
+			esql.getReports().printBillLessThan100(readPeriod());
 		}
 		catch(Exception e){
 			System.out.println("Query 6 failure");
@@ -641,8 +1184,7 @@ public class MechanicShop{
 	
 	public static void ListCustomersWithMoreThan20Cars(MechanicShop esql){//7
 		try{
-			String query = "SELECT C.fname, C.lname, COUNT(*) FROM Owns AS O INNER JOIN Customer AS C ON O.customer_id = C.id GROUP BY c.id HAVING COUNT(*) > 20";
-			esql.executeQueryAndPrintResult(query);
+			esql.getReports().printMoreThan20Cars();
 		}
 		catch(Exception e){
 			System.out.println("Query 7 failure");
@@ -652,8 +1194,7 @@ public class MechanicShop{
 	
 	public static void ListCarsBefore1995With50000Milles(MechanicShop esql){//8
 		try{
-			String query = "SELECT s.rid, S.customer_id, C.vin, C.make, C.model, C.year, S.odometer FROM Car AS C, Service_Request AS S WHERE C.vin = S.car_vin AND C.year < 1995 AND S.odometer < 50000";
-			esql.executeQueryAndPrintResult(query);
+			esql.getReports().printCarsBefore1995(readPeriod());
 		}
 		catch(Exception e){
 			System.out.println("Query 8 failure");
@@ -666,8 +1207,7 @@ public class MechanicShop{
 		try{
 			System.out.print("How many entries?: ");
 			int k = Integer.parseInt(in.readLine());
-			String query = "SELECT C.make, C.model, C.year, C.vin, A.total_requests FROM Car AS C, (SELECT S.car_vin, COUNT(*) AS total_requests FROM Service_Request AS S GROUP BY S.car_vin) AS A WHERE C.vin = A.car_vin ORDER BY A.total_requests DESC LIMIT " + Integer.toString(k);
-			esql.executeQueryAndPrintResult(query);
+			esql.getReports().printKMostServicedCars(k);
 		}
 		catch(Exception e){
 			System.out.println("Query 9 failure");
@@ -679,8 +1219,7 @@ public class MechanicShop{
 	public static void ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql){//10
 		//
 		try{
-			String query = "SELECT C.fname, C.lname, A.total_bill FROM Customer AS C, (SELECT B.customer_id, SUM(B.bill) AS total_bill FROM (SELECT S.customer_id, CR.rid, CR.bill FROM Closed_Request AS CR INNER JOIN Service_Request AS S ON s.rid = CR.rid) AS B GROUP BY B.customer_id) AS A WHERE A.customer_id = C.id ORDER BY total_bill DESC";
-			esql.executeQueryAndPrintResult(query);
+			esql.getReports().printCustomersByTotalBill(readPeriod());
 		}
 		catch(Exception e){
 			System.out.println("Query 10 failure");
@@ -688,4 +1227,117 @@ public class MechanicShop{
 		}
 	}
 	
+	public static void SearchServiceComplaints(MechanicShop esql){//11
+		try{
+			System.out.print("Words to search in the complaints: ");
+			String words = in.readLine();
+			if (esql.queryAndPrint(QUERY_SEARCH_COMPLAINTS, words, SEARCH_LIMIT) == 0){
+				System.out.println("No service request matches");
+			}
+		}
+		catch(Exception e){
+			System.out.println("Search failure");
+			System.err.println(e.getMessage());
+		}
+	}
+	
+	public static void SearchClosingComments(MechanicShop esql){//12
+		try{
+			System.out.print("Words to search in the closing comments: ");
+			String words = in.readLine();
+			if (esql.queryAndPrint(QUERY_SEARCH_COMMENTS, words, SEARCH_LIMIT) == 0){
+				System.out.println("No closed request matches");
+			}
+		}
+		catch(Exception e){
+			System.out.println("Search failure");
+			System.err.println(e.getMessage());
+		}
+	}
+	
+	public static void FindCustomersBySimilarName(MechanicShop esql){//13
+		try{
+			System.out.print("Last name, possibly misspelled: ");
+			String lname = in.readLine().trim();
+			if (esql.queryAndPrint(QUERY_CUSTOMERS_LIKE_LNAME, lname, lname, lname, SEARCH_LIMIT) == 0){
+				System.out.println("No customer has a similar name");
+			}
+		}
+		catch(SQLException e){
+			System.out.println(similarNameError(e));
+		}
+		catch(Exception e){
+			System.out.println("Search failure");
+			System.err.println(e.getMessage());
+		}
+	}
+	
+	/**
+	 * @return the message shown when the similar name search failed, which
+	 *         is most likely the pg_trgm extension missing from the database
+	 */
+	static String similarNameError(SQLException e){
+		if (UNDEFINED_FUNCTION.equals(e.getSQLState())){
+			return "Similar name search unavailable: install the pg_trgm extension (see create.sql)";
+		}
+		return "Similar name search failure: " + e.getMessage();
+	}
+	
+	public static void ClaimNextServiceRequest(MechanicShop esql){//14
+		try{
+			System.out.print("Enter your employee ID: ");
+			int mid = readInt();
+			if (esql.queryInts("SELECT COUNT(*) FROM Mechanic M WHERE M.id = ?", mid).get(0) == 0){
+				System.out.println("The mechanic does not exist!");
+				return;
+			}
+			for (ServiceRequest held : esql.getQueue().claimedBy(mid)){
+				System.out.println("Already assigned to you: request " + held.rid + " on " + held.carVin + " (" + held.date + ")");
+			}
+			System.out.print("Priority, 1. oldest request 2. highest odometer (Enter for 1): ");
+			String choice = in.readLine();
+			String priority = choice != null && choice.trim().equals("2") ? WorkQueue.HIGHEST_ODOMETER_FIRST : WorkQueue.OLDEST_FIRST;
+			ServiceRequest request = esql.getQueue().claim(mid, priority);
+			if (request == null){
+				System.out.println("No open service request left");
+				return;
+			}
+			System.out.println("Request " + request.rid + " is assigned to you");
+			System.out.println("Customer ID: " + request.customerId);
+			System.out.println("Vehicle ID Number: " + request.carVin);
+			System.out.println("Request Date: " + request.date);
+			System.out.println("Vehicle Odometer: " + request.odometer);
+			System.out.println("Service Purpose: " + request.complain);
+			System.out.print("Close it now (c), keep it for later (k) or put it back (r)? ");
+			String answer = in.readLine();
+			answer = answer == null ? "k" : answer.trim().toLowerCase();
+			if (answer.equals("c")){
+				int wid = esql.getNextId(IdAllocator.CLOSED_REQUEST_SEQ);
+				System.out.print("Closed Date: ");
+				String date = in.readLine();
+				System.out.print("Service Comment: ");
+				String comment = in.readLine();
+				System.out.print("Service Bill: $");
+				int bill = readInt();
+				if (esql.update(INSERT_CLOSED_AFTER, wid, request.rid, mid, date, comment, bill, date, request.date) > 0){
+					System.out.println("New Closed Record Added");
+				}
+				else{
+					System.out.println("Invalid closed date! It must be after " + request.date + ", close it with option 5");
+				}
+			}
+			else if (answer.equals("r")){
+				esql.getQueue().release(request.rid, mid);
+				System.out.println("Request " + request.rid + " is back in the queue");
+			}
+			else{
+				System.out.println("Request " + request.rid + " stays assigned to you, close it with option 5");
+			}
+		}
+		catch(Exception e){
+			System.out.println("Claim failure");
+			System.err.println(e.getMessage());
+		}
+	}
+	
 }
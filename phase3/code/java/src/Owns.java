@@ -0,0 +1,25 @@
+import java.sql.SQLException;
+
+/**
+ * One row of the Owns table.
+ *
+ */
+
+public class Owns{
+	//reads the columns of Owns in create.sql order, e.g. from SELECT O.* FROM Owns O
+	public static final RowMapper<Owns> MAPPER = new RowMapper<Owns>(){
+		public Owns map(Row row) throws SQLException {
+			return new Owns(row.getInt(1), row.getInt(2), row.getString(3));
+		}
+	};
+
+	public final int ownershipId;
+	public final int customerId;
+	public final String carVin;
+
+	public Owns(int ownershipId, int customerId, String carVin){
+		this.ownershipId = ownershipId;
+		this.customerId = customerId;
+		this.carVin = carVin;
+	}
+}
@@ -0,0 +1,123 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class prints a query one page at a time using keyset pagination:
+ * every page is fetched with WHERE (key) > (last key) ORDER BY key LIMIT n,
+ * so each page is a range scan of the key index instead of re-reading and
+ * skipping the rows of the previous pages the way OFFSET does.  Output goes
+ * through a buffered writer that is flushed once per page.
+ *
+ */
+
+public class Pager{
+	private final MechanicShop _esql;
+	private final int _pageSize;
+	private final BufferedReader _in;
+
+	/**
+	 * @param esql the MechanicShop running the page queries
+	 * @param pageSize rows per page
+	 * @param in where the answer to the "more" prompt is read from
+	 */
+	public Pager(MechanicShop esql, int pageSize, BufferedReader in){
+		this._esql = esql;
+		this._pageSize = pageSize;
+		this._in = in;
+	}
+
+	/**
+	 * Method to print a query page by page, asking before each further page.
+	 * The key expressions must identify a row uniquely.
+	 *
+	 * @param sql a SELECT whose select list starts right after "SELECT "
+	 * @param keys the expressions to page on, most significant first
+	 * @param descending true to print the highest keys first
+	 * @param params the values of the placeholders of sql
+	 * @return the number of rows printed
+	 * @throws java.sql.SQLException when failed to fetch a page
+	 * @throws java.io.IOException when failed to read the prompt answer
+	 */
+	public long print(String sql, String[] keys, boolean descending, Object... params) throws SQLException, IOException {
+		String keyed = keyed(sql, keys);
+		String order = "";
+		String columns = "";
+		String marks = "";
+		for (int i = 1; i <= keys.length; ++i){
+			String sep = i == 1 ? "" : ", ";
+			order += sep + "P.page_key" + i + (descending ? " DESC" : "");
+			columns += sep + "P.page_key" + i;
+			marks += sep + "?";
+		}//end for
+		String first = "SELECT * FROM (" + keyed + ") AS P ORDER BY " + order + " LIMIT ?";
+		String next = "SELECT * FROM (" + keyed + ") AS P WHERE (" + columns + ") "
+			+ (descending ? "<" : ">") + " (" + marks + ") ORDER BY " + order + " LIMIT ?";
+
+		final PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+		final int numKeys = keys.length;
+		final Object[] last = new Object[numKeys];
+		long rowCount = 0;
+		boolean firstPage = true;
+		while (true){
+			final boolean header = firstPage;
+			List<Object> bind = new ArrayList<Object>();
+			for (Object p : params)
+				bind.add(p);
+			if (!firstPage){
+				for (Object key : last)
+					bind.add(key);
+			}//end if
+			bind.add(this._pageSize);
+
+			long pageRows = this._esql.stream(firstPage ? first : next, new RowHandler(){
+				public boolean handle(Row row) throws SQLException {
+					int numCol = row.getColumnCount();
+					if (header && row.getNumber() == 1){
+						for (int i = numKeys + 1; i <= numCol; ++i)
+							out.print(row.getColumnName(i) + "\t");
+						out.println();
+					}//end if
+					for (int i = 1; i <= numKeys; ++i)
+						last[i - 1] = row.getString(i);
+					for (int i = numKeys + 1; i <= numCol; ++i)
+						out.print(row.getString(i) + "\t");
+					out.println();
+					return true;
+				}
+			}, bind.toArray());
+			rowCount += pageRows;
+			firstPage = false;
+			if (pageRows < this._pageSize){
+				out.flush();
+				return rowCount;
+			}//end if
+
+			out.print("-- " + rowCount + " rows, Enter for more, q to stop -- ");
+			out.flush();
+			String answer = this._in.readLine();
+			if (answer == null || answer.trim().equalsIgnoreCase("q")){
+				return rowCount;
+			}//end if
+		}//end while
+	}//end print
+
+	/**
+	 * Method to prepend the key expressions to the select list of a query
+	 * as columns page_key1, page_key2, ...
+	 */
+	static String keyed(String sql, String[] keys){
+		if (!sql.regionMatches(true, 0, "SELECT ", 0, 7)){
+			throw new IllegalArgumentException("Not a SELECT: " + sql);
+		}//end if
+		StringBuilder keyed = new StringBuilder("SELECT ");
+		for (int i = 0; i < keys.length; ++i)
+			keyed.append(keys[i]).append(" AS page_key").append(i + 1).append(", ");
+		return keyed.append(sql.substring(7)).toString();
+	}//end keyed
+}
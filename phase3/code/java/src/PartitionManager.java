@@ -0,0 +1,52 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * This class keeps a partition of Service_Request and Closed_Request ready
+ * for each coming month, so new requests land in a small partition of their
+ * own instead of the default one, which date-bounded reports cannot skip.
+ * The partitions are created by create_request_partitions() of create.sql,
+ * which leaves existing ones alone, so ensure() can run on every start.
+ *
+ */
+
+public class PartitionManager{
+	//months after the current one that get a partition ahead of time
+	static final int MONTHS_AHEAD = Integer.getInteger("mechanicshop.partitions.monthsAhead", 3);
+
+	static final String CREATE_PARTITIONS = "SELECT create_request_partitions(?, ?, INTERVAL '1 month')";
+
+	private final MechanicShop _esql;
+
+	public PartitionManager(MechanicShop esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to create the monthly partitions missing from the current
+	 * month to MONTHS_AHEAD months later.
+	 *
+	 * @return the number of partitions created
+	 * @throws java.sql.SQLException when the tables are not partitioned or
+	 *         a partition could not be created
+	 */
+	public int ensure() throws SQLException {
+		LocalDate month = LocalDate.now().withDayOfMonth(1);
+		return ensure(month, month.plusMonths(MONTHS_AHEAD + 1));
+	}
+
+	/**
+	 * Method to create the monthly partitions missing over a period, e.g.
+	 * before loading data of past months.
+	 *
+	 * @param from the first day covered
+	 * @param to the first day after the period
+	 * @return the number of partitions created
+	 * @throws java.sql.SQLException when the tables are not partitioned or
+	 *         a partition could not be created
+	 */
+	public int ensure(LocalDate from, LocalDate to) throws SQLException {
+		return this._esql.queryInts(CREATE_PARTITIONS, Date.valueOf(from), Date.valueOf(to)).get(0);
+	}
+}
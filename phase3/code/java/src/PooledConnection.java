@@ -0,0 +1,123 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * This class wraps one physical connection handed out by a ConnectionPool
+ * together with its prepared statement cache.  It also records when it was
+ * created, last used and acquired, which the pool needs for idle eviction and
+ * leak detection.
+ *
+ */
+
+public class PooledConnection{
+	private final Connection _connection;
+	private final StatementCache _statements;
+	private final long _created;
+	private long _lastUsed;
+	private long _acquired;
+	//where the current borrower acquired the connection, for leak reports
+	private Throwable _acquiredBy = null;
+	private boolean _leakReported = false;
+	private boolean _broken = false;
+
+	PooledConnection(Connection connection, int statementCacheSize){
+		this._connection = connection;
+		this._statements = new StatementCache(connection, statementCacheSize);
+		this._created = System.currentTimeMillis();
+		this._lastUsed = this._created;
+	}
+
+	/**
+	 * Method to obtain the physical connection, e.g. to run several
+	 * statements in one transaction.
+	 *
+	 * @return the JDBC connection
+	 */
+	public Connection getConnection(){
+		return this._connection;
+	}
+
+	/**
+	 * Method to obtain the cached prepared statement for a SQL string and
+	 * bind the given parameters to its ? placeholders, in order.
+	 *
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 * @return the statement ready to be executed
+	 * @throws java.sql.SQLException when failed to prepare or bind
+	 */
+	public PreparedStatement prepare(String sql, Object... params) throws SQLException {
+		PreparedStatement stmt = this._statements.prepare(sql);
+		stmt.clearParameters();
+		for (int i = 0; i < params.length; ++i)
+			stmt.setObject(i + 1, params[i]);
+		return stmt;
+	}//end prepare
+
+	/**
+	 * Method to record that a statement failed on this connection.  The
+	 * statement is dropped from the cache, and a connection-level error
+	 * (SQLState class 08) marks the connection so the pool discards it
+	 * instead of handing it out again.
+	 *
+	 * @param sql the SQL string that failed
+	 * @param e the error raised by the driver
+	 */
+	public void failed(String sql, SQLException e){
+		this._statements.evict(sql);
+		String state = e.getSQLState();
+		if (state != null && state.startsWith("08")){
+			this._broken = true;
+		}//end if
+	}//end failed
+
+	boolean isBroken(){
+		return this._broken;
+	}
+
+	long getCreated(){
+		return this._created;
+	}
+
+	long getLastUsed(){
+		return this._lastUsed;
+	}
+
+	long getAcquired(){
+		return this._acquired;
+	}
+
+	Throwable getAcquiredBy(){
+		return this._acquiredBy;
+	}
+
+	void onAcquire(boolean trackLeaks){
+		this._acquired = System.currentTimeMillis();
+		this._acquiredBy = trackLeaks ? new Throwable("Connection acquired here") : null;
+		this._leakReported = false;
+	}
+
+	void onRelease(){
+		this._lastUsed = System.currentTimeMillis();
+		this._acquiredBy = null;
+	}
+
+	boolean markLeakReported(){
+		boolean first = !this._leakReported;
+		this._leakReported = true;
+		return first;
+	}
+
+	/**
+	 * Method to close every cached statement and the physical connection.
+	 */
+	void close(){
+		this._statements.clear();
+		try{
+			this._connection.close();
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}//end close
+}
@@ -0,0 +1,188 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class keeps the results of slow-changing lookups, e.g. customers by
+ * last name, so repeated lookups skip the DBMS.  Entries are evicted least
+ * recently used first once the cache is full and expire after a time to
+ * live, which bounds how stale a row written by another process can get.
+ * Writes done by this process drop the entries of the written table at once.
+ *
+ */
+
+public class QueryCache{
+	//table written by an INSERT, UPDATE or DELETE statement
+	private static final Pattern WRITE = Pattern.compile(
+		"^\\s*(?:INSERT\\s+INTO|UPDATE|DELETE\\s+FROM)\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+	private static class Entry{
+		final List<?> result;
+		final String[] tables;
+		final long expires;
+
+		Entry(List<?> result, String[] tables, long expires){
+			this.result = result;
+			this.tables = tables;
+			this.expires = expires;
+		}
+	}
+
+	private final long _ttl;
+	private final LinkedHashMap<List<Object>, Entry> _entries;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _invalidations = 0;
+
+	/**
+	 * @param capacity the number of results kept
+	 * @param ttl ms a result stays valid
+	 */
+	public QueryCache(final int capacity, long ttl){
+		this._ttl = ttl;
+		//access ordered, so the eldest entry is the least recently used one
+		this._entries = new LinkedHashMap<List<Object>, Entry>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest){
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Method to look up the cached result of a query.
+	 *
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 * @return the result, or null when it is not cached or expired
+	 */
+	public List<List<String>> get(String sql, Object... params){
+		return get(null, sql, params);
+	}
+
+	/**
+	 * Method to look up the cached result of a query mapped to objects.
+	 *
+	 * @param mapper the mapper the result was cached with, null for rows of
+	 *        strings
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 * @return the result, or null when it is not cached or expired
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> List<T> get(RowMapper<T> mapper, String sql, Object... params){
+		List<Object> key = key(mapper, sql, params);
+		Entry entry = this._entries.get(key);
+		if (entry != null && entry.expires <= System.currentTimeMillis()){
+			this._entries.remove(key);
+			entry = null;
+		}//end if
+		if (entry == null){
+			++this._misses;
+			return null;
+		}//end if
+		++this._hits;
+		return (List<T>) entry.result;
+	}//end get
+
+	/**
+	 * Method to cache the result of a query.
+	 *
+	 * @param tables the tables the query reads, in any case
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 * @param result the rows returned by the query
+	 * @return the cached, read-only result
+	 */
+	public List<List<String>> put(String[] tables, String sql, Object[] params, List<List<String>> result){
+		return put(null, tables, sql, params, result);
+	}
+
+	/**
+	 * Method to cache the result of a query mapped to objects.  The mapped
+	 * objects are shared by every caller, so they should be immutable.
+	 *
+	 * @param mapper the mapper that built the result, null for rows of
+	 *        strings
+	 * @param tables the tables the query reads, in any case
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 * @param result the objects built from the rows of the query
+	 * @return the cached, read-only result
+	 */
+	public synchronized <T> List<T> put(RowMapper<T> mapper, String[] tables, String sql, Object[] params, List<T> result){
+		String[] lower = new String[tables.length];
+		for (int i = 0; i < tables.length; ++i)
+			lower[i] = tables[i].toLowerCase(Locale.ROOT);
+		List<T> frozen = Collections.unmodifiableList(result);
+		this._entries.put(key(mapper, sql, params), new Entry(frozen, lower, System.currentTimeMillis() + this._ttl));
+		return frozen;
+	}//end put
+
+	/**
+	 * Method to drop every result that read the table written by a
+	 * statement.  Statements other than INSERT, UPDATE and DELETE are
+	 * ignored.
+	 *
+	 * @param sql the SQL string of the write
+	 */
+	public void invalidateWrite(String sql){
+		Matcher m = WRITE.matcher(sql);
+		if (m.find()){
+			invalidate(m.group(1));
+		}//end if
+	}//end invalidateWrite
+
+	/**
+	 * Method to drop every result that read a table.
+	 *
+	 * @param table the table name, in any case
+	 */
+	public synchronized void invalidate(String table){
+		String lower = table.toLowerCase(Locale.ROOT);
+		Iterator<Entry> it = this._entries.values().iterator();
+		while (it.hasNext()){
+			for (String t : it.next().tables){
+				if (t.equals(lower)){
+					it.remove();
+					++this._invalidations;
+					break;
+				}//end if
+			}//end for
+		}//end while
+	}//end invalidate
+
+	public synchronized void clear(){
+		this._entries.clear();
+	}
+
+	public synchronized long getHitCount(){
+		return this._hits;
+	}
+
+	public synchronized long getMissCount(){
+		return this._misses;
+	}
+
+	public synchronized String toString(){
+		long lookups = this._hits + this._misses;
+		return String.format("entries=%d hits=%d misses=%d hitRatio=%.1f%% invalidated=%d",
+			this._entries.size(), this._hits, this._misses,
+			lookups == 0 ? 0.0 : 100.0 * this._hits / lookups, this._invalidations);
+	}
+
+	private static List<Object> key(RowMapper<?> mapper, String sql, Object[] params){
+		List<Object> key = new ArrayList<Object>(params.length + 2);
+		//the same query mapped differently is another entry
+		key.add(mapper);
+		key.add(sql);
+		for (Object p : params)
+			key.add(p);
+		return key;
+	}
+}
@@ -0,0 +1,110 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs data access tasks in the background for the async API of
+ * MechanicShop.  At most parallelism tasks run at once, matching the
+ * connection pool, and at most parallelism + queueSize may be outstanding;
+ * beyond that submit() does not wait but fails the returned future, so a
+ * caller is never blocked by a backlog it can handle asynchronously.  On a JDK with virtual threads
+ * each task gets its own virtual thread, otherwise a fixed pool of daemon
+ * threads is used.
+ *
+ */
+
+public class QueryExecutor{
+	private final ExecutorService _executor;
+	private final boolean _virtual;
+	//bounds running tasks, only needed with virtual threads
+	private final Semaphore _running;
+	//bounds running plus queued tasks
+	private final Semaphore _outstanding;
+
+	public QueryExecutor(int parallelism, int queueSize){
+		ExecutorService virtual = newVirtualThreadExecutor();
+		this._virtual = virtual != null;
+		this._executor = this._virtual ? virtual : Executors.newFixedThreadPool(parallelism, new ThreadFactory(){
+			private final AtomicInteger _count = new AtomicInteger();
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "MechanicShop-async-" + this._count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this._running = new Semaphore(parallelism);
+		this._outstanding = new Semaphore(parallelism + queueSize);
+	}
+
+	/**
+	 * Method to run a task in the background.
+	 *
+	 * @param task the work to run, e.g. a query
+	 * @return a future completed with the task's result or exception, or
+	 *         failed with a RejectedExecutionException when the queue is
+	 *         full or the executor shut down
+	 */
+	public <T> CompletableFuture<T> submit(final Callable<T> task){
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		if (!this._outstanding.tryAcquire()){
+			future.completeExceptionally(new RejectedExecutionException("Too many queries outstanding"));
+			return future;
+		}//end if
+		try{
+			this._executor.execute(new Runnable(){
+				public void run(){
+					try{
+						if (_virtual){
+							_running.acquire();
+						}//end if
+						try{
+							future.complete(task.call());
+						}finally{
+							if (_virtual){
+								_running.release();
+							}//end if
+						}
+					}catch (Throwable e){
+						future.completeExceptionally(e);
+					}finally{
+						_outstanding.release();
+					}
+				}
+			});
+		}catch (RejectedExecutionException e){
+			this._outstanding.release();
+			future.completeExceptionally(e);
+		}
+		return future;
+	}//end submit
+
+	/**
+	 * @return true when tasks run on virtual threads
+	 */
+	public boolean isVirtual(){
+		return this._virtual;
+	}
+
+	public void shutdown(){
+		this._executor.shutdown();
+	}
+
+	/**
+	 * Method to create Executors.newVirtualThreadPerTaskExecutor() when the
+	 * running JDK has it, looked up by reflection so older JDKs still work.
+	 */
+	private static ExecutorService newVirtualThreadExecutor(){
+		try{
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		}catch (Exception e){
+			return null;
+		}//end try
+	}
+}
@@ -0,0 +1,248 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class records every statement run by MechanicShop, grouped by shape:
+ * the SQL text with its literals replaced by ?, so statements built by
+ * concatenation fall in the same group as their parameterized form.  For
+ * each shape it keeps the number of executions, errors, rows and bytes
+ * fetched (the length of the values read, as text), and a log-scale
+ * latency histogram giving percentiles within about 20%.  Memory does not
+ * grow with the number of executions.
+ *
+ * Statements slower than the slow query threshold are logged to
+ * System.err with their parameters.  The numbers are published over JMX
+ * and printed by dump().
+ *
+ */
+
+public class QueryMetrics implements QueryMetricsMBean{
+	//string and number literals
+	private static final Pattern STRING = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern NUMBER = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+	private static final Pattern SPACE = Pattern.compile("\\s+");
+
+	//buckets per power of two of the latency in us, and number of buckets
+	private static final int STEPS = 4;
+	private static final int BUCKETS = 36 * STEPS;
+
+	private static class Shape{
+		final String sql;
+		long count = 0;
+		long errors = 0;
+		long slow = 0;
+		long rows = 0;
+		long bytes = 0;
+		long totalNanos = 0;
+		long maxNanos = 0;
+		final long[] buckets = new long[BUCKETS];
+		String lastError = null;
+
+		Shape(String sql){
+			this.sql = sql;
+		}
+
+		/**
+		 * @return the upper bound in ms of the bucket holding the p-th
+		 *         fraction of the executions
+		 */
+		double percentileMillis(double p){
+			long rank = (long) Math.ceil(p * this.count);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; ++i){
+				seen += this.buckets[i];
+				if (seen >= rank && seen > 0){
+					return Math.min(Math.pow(2, (double) i / STEPS) / 1e3, this.maxNanos / 1e6);
+				}//end if
+			}//end for
+			return this.maxNanos / 1e6;
+		}
+	}
+
+	private final long _slowNanos;
+	private final int _maxShapes;
+	private final Map<String, Shape> _shapes = new HashMap<String, Shape>();
+	//shape of each SQL string seen, to normalize each string once
+	private final Map<String, String> _normalized = new HashMap<String, String>();
+	private ObjectName _name = null;
+
+	/**
+	 * @param slowQueryMs ms from which a statement is logged, 0 disables
+	 * @param maxShapes the number of shapes tracked, later ones are counted
+	 *        under "other"
+	 */
+	public QueryMetrics(long slowQueryMs, int maxShapes){
+		this._slowNanos = slowQueryMs * 1000000L;
+		this._maxShapes = maxShapes;
+	}
+
+	/**
+	 * Method to record one execution of a statement.
+	 *
+	 * @param sql the SQL string executed
+	 * @param params the values bound to its placeholders, or null
+	 * @param nanos the time it took
+	 * @param rows the number of rows returned or affected
+	 * @param bytes the size of the values fetched
+	 * @param error the error it raised, or null
+	 */
+	public void record(String sql, Object[] params, long nanos, long rows, long bytes, Exception error){
+		boolean slow = this._slowNanos > 0 && nanos >= this._slowNanos;
+		synchronized (this){
+			Shape shape = shape(sql);
+			++shape.count;
+			shape.rows += rows;
+			shape.bytes += bytes;
+			shape.totalNanos += nanos;
+			shape.maxNanos = Math.max(shape.maxNanos, nanos);
+			++shape.buckets[bucket(nanos)];
+			if (error != null){
+				++shape.errors;
+				shape.lastError = error.getMessage();
+			}//end if
+			if (slow){
+				++shape.slow;
+			}//end if
+		}//end synchronized
+		if (slow){
+			System.err.println(String.format("Slow query: %.1f ms, %d rows: %s%s", nanos / 1e6, rows,
+				SPACE.matcher(sql).replaceAll(" "), params == null || params.length == 0 ? "" : " " + Arrays.toString(params)));
+		}//end if
+	}//end record
+
+	public synchronized long getStatements(){
+		long total = 0;
+		for (Shape shape : this._shapes.values())
+			total += shape.count;
+		return total;
+	}
+
+	public synchronized long getErrors(){
+		long total = 0;
+		for (Shape shape : this._shapes.values())
+			total += shape.errors;
+		return total;
+	}
+
+	public synchronized long getSlowStatements(){
+		long total = 0;
+		for (Shape shape : this._shapes.values())
+			total += shape.slow;
+		return total;
+	}
+
+	public synchronized int getShapes(){
+		return this._shapes.size();
+	}
+
+	public String getReport(){
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		dump(new PrintStream(text, true));
+		return text.toString();
+	}
+
+	public synchronized void reset(){
+		this._shapes.clear();
+		this._normalized.clear();
+	}
+
+	/**
+	 * Method to print one line per shape, the shapes taking the most total
+	 * time first.
+	 *
+	 * @param out where to print
+	 */
+	public synchronized void dump(PrintStream out){
+		List<Shape> shapes = new ArrayList<Shape>(this._shapes.values());
+		Collections.sort(shapes, new Comparator<Shape>(){
+			public int compare(Shape a, Shape b){
+				return Long.compare(b.totalNanos, a.totalNanos);
+			}
+		});
+		out.println(String.format("%8s %6s %5s %10s %9s %9s %9s %9s %10s %12s  %s",
+			"count", "errors", "slow", "total ms", "p50 ms", "p95 ms", "p99 ms", "max ms", "rows", "bytes", "statement"));
+		for (Shape s : shapes){
+			out.println(String.format("%8d %6d %5d %10.1f %9.3f %9.3f %9.3f %9.3f %10d %12d  %s",
+				s.count, s.errors, s.slow, s.totalNanos / 1e6, s.percentileMillis(0.50), s.percentileMillis(0.95),
+				s.percentileMillis(0.99), s.maxNanos / 1e6, s.rows, s.bytes, s.sql));
+			if (s.lastError != null){
+				out.println("\t\tlast error: " + s.lastError);
+			}//end if
+		}//end for
+	}//end dump
+
+	/**
+	 * Method to publish these metrics on the platform MBean server.
+	 */
+	public synchronized void register(){
+		try{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("MechanicShop:type=QueryMetrics");
+			if (!server.isRegistered(name)){
+				server.registerMBean(this, name);
+				this._name = name;
+			}//end if
+		}catch (JMException e){
+			System.err.println("Unable to publish the query metrics: " + e.getMessage());
+		}//end try
+	}//end register
+
+	public synchronized void unregister(){
+		if (this._name != null){
+			try{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(this._name);
+			}catch (JMException e){
+				// ignored.
+			}//end try
+			this._name = null;
+		}//end if
+	}//end unregister
+
+	private Shape shape(String sql){
+		String normalized = this._normalized.get(sql);
+		if (normalized == null){
+			normalized = normalize(sql);
+			if (this._normalized.size() >= this._maxShapes * 4){
+				this._normalized.clear();
+			}//end if
+			this._normalized.put(sql, normalized);
+		}//end if
+		Shape shape = this._shapes.get(normalized);
+		if (shape == null){
+			if (this._shapes.size() >= this._maxShapes){
+				normalized = "other";
+				shape = this._shapes.get(normalized);
+			}//end if
+			if (shape == null){
+				shape = new Shape(normalized);
+				this._shapes.put(normalized, shape);
+			}//end if
+		}//end if
+		return shape;
+	}
+
+	static String normalize(String sql){
+		String shape = STRING.matcher(sql).replaceAll("?");
+		shape = NUMBER.matcher(shape).replaceAll("?");
+		return SPACE.matcher(shape).replaceAll(" ").trim();
+	}
+
+	private static int bucket(long nanos){
+		double us = Math.max(1.0, nanos / 1e3);
+		int i = (int) Math.ceil(STEPS * Math.log(us) / Math.log(2));
+		return Math.min(BUCKETS - 1, Math.max(0, i));
+	}
+}
@@ -0,0 +1,22 @@
+/**
+ * The management interface of QueryMetrics, published over JMX as
+ * MechanicShop:type=QueryMetrics.
+ *
+ */
+
+public interface QueryMetricsMBean{
+	long getStatements();
+
+	long getErrors();
+
+	long getSlowStatements();
+
+	int getShapes();
+
+	/**
+	 * @return the per-shape table printed by QueryMetrics.dump()
+	 */
+	String getReport();
+
+	void reset();
+}
@@ -0,0 +1,174 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * This class runs EXPLAIN (ANALYZE, BUFFERS) over the queries of the menu
+ * operations and reports every sequential scan the planner chose, so the
+ * secondary indexes of create.sql can be checked as the data grows.  The
+ * queries are explained one after another, so the timings reported by
+ * ANALYZE are not skewed by the other queries competing for the DBMS.
+ * Operations 1-3 only insert single rows by primary key and are not listed.
+ *
+ * Usage: java -cp lib/*:bin/ QueryPlanAdvisor <dbname> <port> <user> [-v]
+ * where -v also prints the full plans.
+ *
+ */
+
+public class QueryPlanAdvisor{
+	//number of cars asked for when explaining report 9
+	static final int SAMPLE_K = 10;
+	//words searched when explaining the search options
+	static final String SAMPLE_WORDS = "brakes";
+	//period of the date-bounded reports, within the sample data
+	static final String SAMPLE_PERIOD = "2016Q3";
+	//lookup of the closed request by the Closed_Request triggers of create.sql,
+	//run twice on each close
+	static final String CLOSE_TRIGGER_LOOKUP = "SELECT S.customer_id FROM Service_Request S WHERE S.rid = ? AND S.date = request_date(?)";
+
+	private final MechanicShop _esql;
+	private final boolean _verbose;
+
+	public QueryPlanAdvisor(MechanicShop esql, boolean verbose){
+		this._esql = esql;
+		this._verbose = verbose;
+	}
+
+	/**
+	 * Method to explain every menu query and print the findings.  Parameters
+	 * are taken from an existing customer and closed request.
+	 *
+	 * @return the number of queries whose plan contains a sequential scan
+	 * @throws java.sql.SQLException when failed to explain a query
+	 * @throws java.lang.InterruptedException when interrupted while waiting
+	 */
+	public int run() throws SQLException, InterruptedException {
+		CompletableFuture<List<List<String>>> customerLookup = this._esql.queryAsync(
+			"SELECT C.id, C.lname FROM Customer C, Owns O WHERE O.customer_id = C.id LIMIT 1");
+		CompletableFuture<List<List<String>>> closedLookup = this._esql.queryAsync(
+			"SELECT CR.mid, CR.rid FROM Closed_Request CR LIMIT 1");
+		CompletableFuture<List<List<String>>> openLookup = this._esql.queryAsync(
+			"SELECT O.rid FROM Open_Request O LIMIT 1");
+		List<List<String>> customer = join(customerLookup);
+		List<List<String>> closed = join(closedLookup);
+		List<List<String>> open = join(openLookup);
+		if (customer.isEmpty() || closed.isEmpty()){
+			throw new SQLException("Load the sample data before running the advisor");
+		}//end if
+		int cid = Integer.parseInt(customer.get(0).get(0));
+		String lname = customer.get(0).get(1);
+		int mid = Integer.parseInt(closed.get(0).get(0));
+		int rid = Integer.parseInt(closed.get(0).get(1));
+		int openRid = open.isEmpty() ? rid : Integer.parseInt(open.get(0).get(0));
+
+		int flagged = 0;
+		flagged += explain("4. InsertServiceRequest (customers by last name)", MechanicShop.QUERY_CUSTOMERS_BY_LNAME, lname);
+		flagged += explain("4. InsertServiceRequest (cars of customer)", MechanicShop.QUERY_CARS_OF_CUSTOMER, cid);
+		flagged += explain("5. CloseServiceRequest", MechanicShop.QUERY_VERIFY_CLOSE, mid, mid, rid, rid);
+		flagged += explain("5. CloseServiceRequest (trigger lookup of an open request)", CLOSE_TRIGGER_LOOKUP, openRid, openRid);
+		flagged += explain("6. ListCustomersWithBillLessThan100", MechanicShop.QUERY_BILL_LESS_THAN_100);
+		flagged += explain("7. ListCustomersWithMoreThan20Cars", MechanicShop.QUERY_MORE_THAN_20_CARS);
+		flagged += explain("8. ListCarsBefore1995With50000Milles", MechanicShop.QUERY_CARS_BEFORE_1995);
+		flagged += explain("9. ListKCarsWithTheMostServices", MechanicShop.QUERY_K_MOST_SERVICED_CARS, SAMPLE_K);
+		flagged += explain("10. ListCustomersInDescendingOrderOfTheirTotalBill", MechanicShop.QUERY_CUSTOMERS_BY_TOTAL_BILL);
+		flagged += explain("11. SearchServiceComplaints", MechanicShop.QUERY_SEARCH_COMPLAINTS, SAMPLE_WORDS, MechanicShop.SEARCH_LIMIT);
+		flagged += explain("12. SearchClosingComments", MechanicShop.QUERY_SEARCH_COMMENTS, SAMPLE_WORDS, MechanicShop.SEARCH_LIMIT);
+		flagged += explain("13. FindCustomersBySimilarName", MechanicShop.QUERY_CUSTOMERS_LIKE_LNAME, lname, lname, lname, MechanicShop.SEARCH_LIMIT);
+		DateRange period = DateRange.parse(SAMPLE_PERIOD);
+		flagged += explain("6. ListCustomersWithBillLessThan100 (" + SAMPLE_PERIOD + ")", MechanicShop.QUERY_BILL_LESS_THAN_100_BETWEEN, period.from, period.to);
+		flagged += explain("8. ListCarsBefore1995With50000Milles (" + SAMPLE_PERIOD + ")", MechanicShop.QUERY_CARS_BEFORE_1995_BETWEEN, period.from, period.to);
+		flagged += explain("10. ListCustomersInDescendingOrderOfTheirTotalBill (" + SAMPLE_PERIOD + ")", MechanicShop.QUERY_CUSTOMERS_BY_TOTAL_BILL_BETWEEN, period.from, period.to);
+		flagged += explain("6. ListCustomersWithBillLessThan100 (summary)", ReportEngine.SUMMARY_BILL_LESS_THAN_100);
+		flagged += explain("7. ListCustomersWithMoreThan20Cars (summary)", ReportEngine.SUMMARY_MORE_THAN_20_CARS);
+		flagged += explain("9. ListKCarsWithTheMostServices (summary)", ReportEngine.SUMMARY_K_MOST_SERVICED_CARS, SAMPLE_K);
+		flagged += explain("10. ListCustomersInDescendingOrderOfTheirTotalBill (summary)", ReportEngine.SUMMARY_CUSTOMERS_BY_TOTAL_BILL);
+		return flagged;
+	}//end run
+
+	/**
+	 * Method to explain one query and print its findings.
+	 *
+	 * @return 1 if the plan contains a sequential scan, 0 otherwise
+	 */
+	private int explain(String name, String sql, Object... params) throws SQLException {
+		return report(name, this._esql.query("EXPLAIN (ANALYZE, BUFFERS) " + sql, params));
+	}
+
+	/**
+	 * Method to print the time, the number of scans and the sequential scans
+	 * of one plan.  A lookup that cannot prune the partitions of a table
+	 * shows one scan per partition.
+	 *
+	 * @return 1 if the plan contains a sequential scan, 0 otherwise
+	 */
+	private int report(String name, List<List<String>> plan){
+		List<String> seqScans = new ArrayList<String>();
+		String time = "";
+		int scans = 0;
+		for (List<String> row : plan){
+			String line = row.get(0);
+			if (line.contains(" Scan on ") || line.contains(" Scan using ")){
+				++scans;
+			}//end if
+			int at = line.indexOf("Seq Scan on ");
+			if (at >= 0){
+				seqScans.add(line.substring(at).trim());
+			}//end if
+			if (line.startsWith("Execution Time") || line.startsWith("Total runtime")){
+				time = line.substring(line.indexOf(':') + 1).trim();
+			}//end if
+		}//end for
+
+		System.out.println(name + " [" + time + ", " + scans + " scans]");
+		if (seqScans.isEmpty()){
+			System.out.println("\tOK - index access only");
+		}else{
+			for (String scan : seqScans)
+				System.out.println("\tSEQ SCAN - " + scan);
+		}//end if
+		if (this._verbose){
+			for (List<String> row : plan)
+				System.out.println("\t\t" + row.get(0));
+		}//end if
+		return seqScans.isEmpty() ? 0 : 1;
+	}//end report
+
+	/**
+	 * Method to wait for a background query, rethrowing its SQL error.
+	 */
+	private static List<List<String>> join(CompletableFuture<List<List<String>>> future) throws SQLException, InterruptedException {
+		try{
+			return future.get();
+		}catch (ExecutionException e){
+			if (e.getCause() instanceof SQLException){
+				throw (SQLException) e.getCause();
+			}//end if
+			throw new SQLException(e.getCause());
+		}//end try
+	}
+
+	public static void main(String[] args){
+		if (args.length < 3) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + QueryPlanAdvisor.class.getName () +
+		            " <dbname> <port> <user> [-v]");
+			return;
+		}//end if
+
+		MechanicShop esql = null;
+		try{
+			esql = new MechanicShop(args[0], args[1], args[2], "");
+			boolean verbose = args.length > 3 && args[3].equals("-v");
+			int flagged = new QueryPlanAdvisor(esql, verbose).run();
+			System.out.println(flagged + " queries use sequential scans");
+		}catch(Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if (esql != null){
+				esql.cleanup();
+			}//end if
+		}
+	}
+}
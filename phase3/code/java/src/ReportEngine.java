@@ -0,0 +1,378 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * This class chooses the SQL run by reports 6, 7, 9 and 10.  By default they
+ * read the summary tables of create.sql (Cheap_Repair, Customer_Car_Count,
+ * Car_Request_Count, Customer_Bill), which triggers keep up to date, instead
+ * of joining and grouping the request tables on every run.  When
+ * mechanicshop.reports.live is set the original queries are used.  When
+ * mechanicshop.reports.refreshInterval is positive the summaries are rebuilt
+ * before a report once they are older than that many ms; the rebuild locks
+ * the request tables, so writers wait for it.
+ *
+ * Report 9 never sorts the whole per-car aggregate: the summary is read
+ * through a descending index on the request count, and the live query is
+ * streamed into a min-heap holding only the K best cars.
+ *
+ * When mechanicshop.pageSize is positive, reports 6, 8 and 10 are printed
+ * that many rows at a time by a keyset Pager.
+ *
+ * When mechanicshop.reports.columnar is set, reports 6 to 10 are computed
+ * in memory over a ColumnarSnapshot of the tables, reloaded before a report
+ * once it is older than mechanicshop.reports.snapshotTtl ms.  They are then
+ * printed in one go, without paging.
+ *
+ * Reports 6, 8 and 10 can be bounded to a DateRange.  Summary tables hold
+ * all-time totals, so bounded reports always join the request tables, but
+ * only the partitions of the period are read.
+ *
+ * runAll() runs the SQL of reports 6 to 10 concurrently, e.g. for the
+ * reports operation of HeadlessRunner.
+ *
+ */
+
+public class ReportEngine{
+	static final boolean LIVE = Boolean.getBoolean("mechanicshop.reports.live");
+	static final long REFRESH_INTERVAL = Long.getLong("mechanicshop.reports.refreshInterval", 0L);
+	//rows per page of the long reports, 0 prints them in one go
+	static final int PAGE_SIZE = Integer.getInteger("mechanicshop.pageSize", 0);
+	static final boolean COLUMNAR = Boolean.getBoolean("mechanicshop.reports.columnar");
+	static final long SNAPSHOT_TTL = Long.getLong("mechanicshop.reports.snapshotTtl", 60000L);
+
+	public static final String REFRESH = "SELECT refresh_report_summaries()";
+
+	static final String SUMMARY_BILL_LESS_THAN_100 = "SELECT C.fname, C.lname, R.date, R.comment, R.bill FROM Cheap_Repair AS R, Customer AS C WHERE C.id = R.customer_id";
+	static final String SUMMARY_MORE_THAN_20_CARS = "SELECT C.fname, C.lname, S.cars AS count FROM Customer_Car_Count AS S, Customer AS C WHERE S.cars > 20 AND C.id = S.customer_id";
+	static final String SUMMARY_K_MOST_SERVICED_CARS = "SELECT C.make, C.model, C.year, C.vin, S.requests AS total_requests FROM Car_Request_Count AS S, Car AS C WHERE C.vin = S.car_vin ORDER BY S.requests DESC LIMIT ?";
+	static final String SUMMARY_CUSTOMERS_BY_TOTAL_BILL = "SELECT C.fname, C.lname, B.total_bill FROM Customer_Bill AS B, Customer AS C WHERE C.id = B.customer_id ORDER BY B.total_bill DESC";
+
+	//the per-car aggregate of report 9 without ORDER BY, for the heap
+	static final String QUERY_SERVICED_CARS = "SELECT C.make, C.model, C.year, C.vin, A.total_requests FROM Car AS C, (SELECT S.car_vin, COUNT(*) AS total_requests FROM Service_Request AS S GROUP BY S.car_vin) AS A WHERE C.vin = A.car_vin";
+
+	//orders rows of QUERY_SERVICED_CARS by their request count
+	private static final Comparator<String[]> BY_REQUESTS = new Comparator<String[]>(){
+		public int compare(String[] a, String[] b){
+			return Long.compare(Long.parseLong(a[4]), Long.parseLong(b[4]));
+		}
+	};
+
+	private final MechanicShop _esql;
+	private final boolean _live;
+	private final long _refreshInterval;
+	private long _lastRefresh;
+	//null when paging is off
+	private final Pager _pager;
+	private final boolean _columnar;
+	private ColumnarSnapshot _snapshot = null;
+
+	public ReportEngine(MechanicShop esql, boolean live, long refreshInterval, int pageSize, boolean columnar){
+		this._esql = esql;
+		this._live = live;
+		this._refreshInterval = refreshInterval;
+		this._pager = pageSize > 0 ? new Pager(esql, pageSize, MechanicShop.in) : null;
+		this._lastRefresh = System.currentTimeMillis();
+		this._columnar = columnar;
+	}
+
+	public String billLessThan100() throws SQLException {
+		return choose(MechanicShop.QUERY_BILL_LESS_THAN_100, SUMMARY_BILL_LESS_THAN_100);
+	}
+
+	/**
+	 * Method to print report 6, paged by work order id.
+	 *
+	 * @return the number of rows printed
+	 */
+	public long printBillLessThan100() throws SQLException, IOException {
+		return printBillLessThan100(null);
+	}
+
+	/**
+	 * Method to print report 6 for the requests closed in a period.
+	 *
+	 * @param period the closing dates, null for all time
+	 * @return the number of rows printed
+	 */
+	public long printBillLessThan100(DateRange period) throws SQLException, IOException {
+		if (period != null){
+			String[] keys = { "CR.wid" };
+			return print(MechanicShop.QUERY_BILL_LESS_THAN_100_BETWEEN, keys, false, period.from, period.to);
+		}//end if
+		if (this._columnar){
+			PrintWriter out = stdout();
+			try{
+				return snapshot().printBillLessThan100(out);
+			}finally{
+				out.flush();
+			}//end try
+		}//end if
+		String[] keys = { this._live ? "CR.wid" : "R.wid" };
+		return print(billLessThan100(), keys, false);
+	}
+
+	/**
+	 * Method to print report 8, paged by request id.
+	 *
+	 * @return the number of rows printed
+	 */
+	public long printCarsBefore1995() throws SQLException, IOException {
+		return printCarsBefore1995(null);
+	}
+
+	/**
+	 * Method to print report 8 for the requests made in a period.
+	 *
+	 * @param period the request dates, null for all time
+	 * @return the number of rows printed
+	 */
+	public long printCarsBefore1995(DateRange period) throws SQLException, IOException {
+		if (period != null){
+			String[] keys = { "S.rid" };
+			return print(MechanicShop.QUERY_CARS_BEFORE_1995_BETWEEN, keys, false, period.from, period.to);
+		}//end if
+		if (this._columnar){
+			PrintWriter out = stdout();
+			try{
+				return snapshot().printCarsBefore1995(out);
+			}finally{
+				out.flush();
+			}//end try
+		}//end if
+		String[] keys = { "S.rid" };
+		return print(MechanicShop.QUERY_CARS_BEFORE_1995, keys, false);
+	}
+
+	public String moreThan20Cars() throws SQLException {
+		return choose(MechanicShop.QUERY_MORE_THAN_20_CARS, SUMMARY_MORE_THAN_20_CARS);
+	}
+
+	/**
+	 * Method to print report 7.
+	 *
+	 * @return the number of rows printed
+	 */
+	public long printMoreThan20Cars() throws SQLException {
+		if (this._columnar){
+			PrintWriter out = stdout();
+			try{
+				return snapshot().printMoreThan20Cars(out);
+			}finally{
+				out.flush();
+			}//end try
+		}//end if
+		return this._esql.queryAndPrint(moreThan20Cars());
+	}
+
+	/**
+	 * @return the SQL of report 9, taking K as its only parameter
+	 */
+	public String kMostServicedCars() throws SQLException {
+		return choose(MechanicShop.QUERY_K_MOST_SERVICED_CARS, SUMMARY_K_MOST_SERVICED_CARS);
+	}
+
+	/**
+	 * Method to print the K cars with the most service requests, most
+	 * requested first.
+	 *
+	 * @param k the number of cars to print
+	 * @return the number of cars printed
+	 * @throws java.sql.SQLException when failed to run the report
+	 */
+	public int printKMostServicedCars(int k) throws SQLException {
+		if (this._columnar){
+			PrintWriter out = stdout();
+			try{
+				return (int) snapshot().printKMostServicedCars(out, k);
+			}finally{
+				out.flush();
+			}//end try
+		}//end if
+		String sql = choose(null, SUMMARY_K_MOST_SERVICED_CARS);
+		if (sql != null){
+			return this._esql.queryAndPrint(sql, k);
+		}//end if
+		if (k <= 0){
+			return 0;
+		}//end if
+
+		final int K = k;
+		final PriorityQueue<String[]> heap = new PriorityQueue<String[]>(Math.min(K, 1024) + 1, BY_REQUESTS);
+		final String[] header = new String[5];
+		this._esql.stream(QUERY_SERVICED_CARS, new RowHandler(){
+			public boolean handle(Row row) throws SQLException {
+				if (row.getNumber() == 1){
+					for (int i = 0; i < header.length; ++i)
+						header[i] = row.getColumnName(i + 1);
+				}//end if
+				long requests = row.getLong(5);
+				if (heap.size() == K && requests <= Long.parseLong(heap.peek()[4])){
+					return true;
+				}//end if
+				String[] car = new String[5];
+				for (int i = 0; i < car.length; ++i)
+					car[i] = row.getString(i + 1);
+				heap.offer(car);
+				if (heap.size() > K){
+					heap.poll();
+				}//end if
+				return true;
+			}
+		});
+
+		List<String[]> cars = new ArrayList<String[]>(heap);
+		Collections.sort(cars, Collections.reverseOrder(BY_REQUESTS));
+		PrintWriter out = stdout();
+		try{
+			if (!cars.isEmpty()){
+				for (String column : header)
+					out.print(column + "\t");
+				out.println();
+			}//end if
+			for (String[] car : cars){
+				for (String value : car)
+					out.print(value + "\t");
+				out.println();
+			}//end for
+		}finally{
+			out.flush();
+		}//end try
+		return cars.size();
+	}//end printKMostServicedCars
+
+	public String customersByTotalBill() throws SQLException {
+		return choose(MechanicShop.QUERY_CUSTOMERS_BY_TOTAL_BILL, SUMMARY_CUSTOMERS_BY_TOTAL_BILL);
+	}
+
+	/**
+	 * Method to print report 10, paged by total bill then customer id.
+	 *
+	 * @return the number of rows printed
+	 */
+	public long printCustomersByTotalBill() throws SQLException, IOException {
+		return printCustomersByTotalBill(null);
+	}
+
+	/**
+	 * Method to print report 10 over the requests closed in a period.
+	 *
+	 * @param period the closing dates, null for all time
+	 * @return the number of rows printed
+	 */
+	public long printCustomersByTotalBill(DateRange period) throws SQLException, IOException {
+		if (period != null){
+			String[] keys = { "A.total_bill", "A.customer_id" };
+			return print(MechanicShop.QUERY_CUSTOMERS_BY_TOTAL_BILL_BETWEEN, keys, true, period.from, period.to);
+		}//end if
+		if (this._columnar){
+			PrintWriter out = stdout();
+			try{
+				return snapshot().printCustomersByTotalBill(out);
+			}finally{
+				out.flush();
+			}//end try
+		}//end if
+		String[] keys = this._live
+			? new String[] { "A.total_bill", "A.customer_id" }
+			: new String[] { "B.total_bill", "B.customer_id" };
+		return print(customersByTotalBill(), keys, true);
+	}
+
+	/**
+	 * Method to run reports 6 to 10 at once, each on its own pooled
+	 * connection through MechanicShop.queryAsync(), so together they take
+	 * about as long as the slowest one.
+	 *
+	 * @param k the number of cars of report 9
+	 * @return the rows of each report, from 6 to 10
+	 * @throws java.sql.SQLException when a report failed
+	 */
+	public List<List<List<String>>> runAll(int k) throws SQLException {
+		List<CompletableFuture<List<List<String>>>> running = new ArrayList<CompletableFuture<List<List<String>>>>();
+		running.add(this._esql.queryAsync(billLessThan100()));
+		running.add(this._esql.queryAsync(moreThan20Cars()));
+		running.add(this._esql.queryAsync(MechanicShop.QUERY_CARS_BEFORE_1995));
+		running.add(this._esql.queryAsync(kMostServicedCars(), k));
+		running.add(this._esql.queryAsync(customersByTotalBill()));
+
+		List<List<List<String>>> reports = new ArrayList<List<List<String>>>();
+		SQLException error = null;
+		for (CompletableFuture<List<List<String>>> report : running){
+			try{
+				reports.add(report.join());
+			}catch (CompletionException e){
+				//wait for every report, so none still runs once this returns
+				if (error == null){
+					error = e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException(e.getCause());
+				}//end if
+			}//end try
+		}//end for
+		if (error != null){
+			throw error;
+		}//end if
+		return reports;
+	}//end runAll
+
+	/**
+	 * Method to rebuild every summary table from the base tables.
+	 *
+	 * @throws java.sql.SQLException when the rebuild failed
+	 */
+	public synchronized void refresh() throws SQLException {
+		this._esql.query(REFRESH);
+		this._lastRefresh = System.currentTimeMillis();
+	}//end refresh
+
+	/**
+	 * Method to get the columnar snapshot, loading it on first use and
+	 * reloading it once older than mechanicshop.reports.snapshotTtl.
+	 *
+	 * @return the current snapshot
+	 * @throws java.sql.SQLException when failed to load the snapshot
+	 */
+	public synchronized ColumnarSnapshot snapshot() throws SQLException {
+		if (this._snapshot == null || System.currentTimeMillis() - this._snapshot.getLoaded() >= SNAPSHOT_TTL){
+			//drop the old copy first so both are not held at once
+			this._snapshot = null;
+			this._snapshot = new ColumnarSnapshot(this._esql);
+			//on stderr, so it does not land in the middle of a report
+			System.err.println("Loaded " + this._snapshot);
+		}//end if
+		return this._snapshot;
+	}//end snapshot
+
+	private static PrintWriter stdout(){
+		return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+	}
+
+	private long print(String sql, String[] keys, boolean descending, Object... params) throws SQLException, IOException {
+		if (this._pager == null){
+			return this._esql.queryAndPrint(sql, params);
+		}//end if
+		return this._pager.print(sql, keys, descending, params);
+	}
+
+	private String choose(String live, String summary) throws SQLException {
+		if (this._live){
+			return live;
+		}//end if
+		if (this._refreshInterval > 0){
+			synchronized (this){
+				if (System.currentTimeMillis() - this._lastRefresh >= this._refreshInterval){
+					refresh();
+				}//end if
+			}//end synchronized
+		}//end if
+		return summary;
+	}//end choose
+}
@@ -0,0 +1,103 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * This class gives typed access to the current row of a streamed query.  A
+ * Row is only valid inside the RowHandler call it was passed to; the next
+ * call sees the next row of the same cursor.
+ *
+ */
+
+public class Row{
+	private final ResultSet _rs;
+	private final ResultSetMetaData _meta;
+	private long _number = 0;
+	//length of the text values read so far
+	private long _bytes = 0;
+
+	Row(ResultSet rs) throws SQLException {
+		this._rs = rs;
+		this._meta = rs.getMetaData();
+	}
+
+	boolean next() throws SQLException {
+		if (this._rs.next()){
+			++this._number;
+			return true;
+		}//end if
+		return false;
+	}
+
+	/**
+	 * @return the position of this row in the result, starting at 1
+	 */
+	public long getNumber(){
+		return this._number;
+	}
+
+	public int getColumnCount() throws SQLException {
+		return this._meta.getColumnCount();
+	}
+
+	public String getColumnName(int column) throws SQLException {
+		return this._meta.getColumnName(column);
+	}
+
+	public String getString(int column) throws SQLException {
+		return count(this._rs.getString(column));
+	}
+
+	public String getString(String column) throws SQLException {
+		return count(this._rs.getString(column));
+	}
+
+	long getBytes(){
+		return this._bytes;
+	}
+
+	/**
+	 * @return the value of the column, 0 when it is NULL
+	 */
+	public int getInt(int column) throws SQLException {
+		return this._rs.getInt(column);
+	}
+
+	public int getInt(String column) throws SQLException {
+		return this._rs.getInt(column);
+	}
+
+	/**
+	 * @return the value of the column, 0 when it is NULL
+	 */
+	public long getLong(int column) throws SQLException {
+		return this._rs.getLong(column);
+	}
+
+	public long getLong(String column) throws SQLException {
+		return this._rs.getLong(column);
+	}
+
+	public Date getDate(int column) throws SQLException {
+		return this._rs.getDate(column);
+	}
+
+	public Date getDate(String column) throws SQLException {
+		return this._rs.getDate(column);
+	}
+
+	/**
+	 * @return true if the column last read by a getter was NULL
+	 */
+	public boolean wasNull() throws SQLException {
+		return this._rs.wasNull();
+	}
+
+	private String count(String value){
+		if (value != null){
+			this._bytes += value.length();
+		}//end if
+		return value;
+	}
+}
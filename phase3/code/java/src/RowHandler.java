@@ -0,0 +1,17 @@
+import java.sql.SQLException;
+
+/**
+ * Callback receiving the rows of a streamed query one at a time.
+ *
+ */
+
+public interface RowHandler{
+	/**
+	 * Method called once per row, in result order.
+	 *
+	 * @param row the current row, only valid during this call
+	 * @return true to receive the next row, false to stop the query
+	 * @throws java.sql.SQLException when failed to read the row
+	 */
+	boolean handle(Row row) throws SQLException;
+}
@@ -0,0 +1,18 @@
+import java.sql.SQLException;
+
+/**
+ * Callback turning the current row of a query into an object, e.g. one of
+ * the table records Customer, Car, ...
+ *
+ */
+
+public interface RowMapper<T>{
+	/**
+	 * Method called once per row, in result order.
+	 *
+	 * @param row the current row, only valid during this call
+	 * @return the object holding the values of the row
+	 * @throws java.sql.SQLException when failed to read the row
+	 */
+	T map(Row row) throws SQLException;
+}
@@ -0,0 +1,32 @@
+import java.sql.Date;
+import java.sql.SQLException;
+
+/**
+ * One row of the Service_Request table.
+ *
+ */
+
+public class ServiceRequest{
+	//reads the columns of Service_Request in create.sql order, e.g. from SELECT S.* FROM Service_Request S
+	public static final RowMapper<ServiceRequest> MAPPER = new RowMapper<ServiceRequest>(){
+		public ServiceRequest map(Row row) throws SQLException {
+			return new ServiceRequest(row.getInt(1), row.getInt(2), row.getString(3), row.getDate(4), row.getInt(5), row.getString(6));
+		}
+	};
+
+	public final int rid;
+	public final int customerId;
+	public final String carVin;
+	public final Date date;
+	public final int odometer;
+	public final String complain;
+
+	public ServiceRequest(int rid, int customerId, String carVin, Date date, int odometer, String complain){
+		this.rid = rid;
+		this.customerId = customerId;
+		this.carVin = carVin;
+		this.date = date;
+		this.odometer = odometer;
+		this.complain = complain;
+	}
+}
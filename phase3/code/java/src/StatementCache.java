@@ -0,0 +1,80 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the most recently used prepared statements of one
+ * connection open so that repeated queries skip the parse/plan step.  When
+ * the cache is full the least recently used statement is closed.
+ *
+ */
+
+public class StatementCache{
+	private final Connection _connection;
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+
+	public StatementCache(Connection connection, final int capacity){
+		this._connection = connection;
+		//access ordered, so the eldest entry is the least recently used one
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest){
+				if (size() > capacity){
+					closeQuietly(eldest.getValue());
+					return true;
+				}//end if
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Method to obtain a prepared statement for the given SQL, reusing the
+	 * cached one when this SQL was prepared before.  The statement stays
+	 * owned by the cache and must not be closed by the caller.
+	 *
+	 * @param sql the SQL string with ? placeholders
+	 * @return the prepared statement
+	 * @throws java.sql.SQLException when failed to prepare the statement
+	 */
+	public synchronized PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if (stmt == null || stmt.isClosed()){
+			stmt = this._connection.prepareStatement(sql);
+			this._statements.put(sql, stmt);
+		}//end if
+		return stmt;
+	}//end prepare
+
+	/**
+	 * Method to drop a statement from the cache, e.g. after it failed.
+	 *
+	 * @param sql the SQL string the statement was prepared for
+	 */
+	public synchronized void evict(String sql){
+		closeQuietly(this._statements.remove(sql));
+	}//end evict
+
+	/**
+	 * Method to close every cached statement.
+	 */
+	public synchronized void clear(){
+		Iterator<PreparedStatement> it = this._statements.values().iterator();
+		while (it.hasNext()){
+			closeQuietly(it.next());
+			it.remove();
+		}//end while
+	}//end clear
+
+	private static void closeQuietly(PreparedStatement stmt){
+		try{
+			if (stmt != null){
+				stmt.close();
+			}//end if
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}
+}
@@ -0,0 +1,20 @@
+import java.sql.SQLException;
+
+/**
+ * The body of a transaction run by MechanicShop.inTransaction().  It may be
+ * run more than once when the transaction is retried, so it must have no
+ * side effects outside the transaction.  Keys from MechanicShop.getNextId()
+ * are reserved before inTransaction(), so a retry does not use up new ones.
+ *
+ */
+
+public interface Transaction<T>{
+	/**
+	 * Method running the statements of the transaction.
+	 *
+	 * @param work the open transaction, committed when run() returns
+	 * @return the result handed back by inTransaction()
+	 * @throws java.sql.SQLException to roll the transaction back
+	 */
+	T run(UnitOfWork work) throws SQLException;
+}
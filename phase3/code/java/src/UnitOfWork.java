@@ -0,0 +1,136 @@
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class runs the statements of one transaction of
+ * MechanicShop.inTransaction() on a single pooled connection.  Statements
+ * are recorded in the query metrics like the ones run by MechanicShop, and
+ * the cached lookups of the tables written are dropped once the transaction
+ * commits.
+ *
+ */
+
+public class UnitOfWork{
+	private final PooledConnection _conn;
+	private final QueryMetrics _metrics;
+	//SQL strings written, for cache invalidation after the commit
+	private final List<String> _writes = new ArrayList<String>();
+
+	UnitOfWork(PooledConnection conn, QueryMetrics metrics){
+		this._conn = conn;
+		this._metrics = metrics;
+	}
+
+	/**
+	 * Method to obtain the physical connection, e.g. to use JDBC directly.
+	 *
+	 * @return the JDBC connection of the transaction
+	 */
+	public Connection getConnection(){
+		return this._conn.getConnection();
+	}
+
+	/**
+	 * Method to execute a parameterized update SQL statement.
+	 *
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 */
+	public int update(String sql, Object... params) throws SQLException {
+		long start = System.nanoTime();
+		try{
+			int rowCount = this._conn.prepare(sql, params).executeUpdate();
+			this._metrics.record(sql, params, System.nanoTime() - start, rowCount, 0, null);
+			this._writes.add(sql);
+			return rowCount;
+		}catch (SQLException e){
+			this._metrics.record(sql, params, System.nanoTime() - start, 0, 0, e);
+			this._conn.failed(sql, e);
+			throw e;
+		}//end try
+	}//end update
+
+	/**
+	 * Method to execute a parameterized query and return the results as a
+	 * list of records.
+	 *
+	 * @param sql the SQL string with ? placeholders
+	 * @param params the values of the placeholders
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> query(String sql, Object... params) throws SQLException {
+		long start = System.nanoTime();
+		try{
+			ResultSet rs = this._conn.prepare(sql, params).executeQuery();
+			int numCol = rs.getMetaData().getColumnCount();
+			List<List<String>> result = new ArrayList<List<String>>();
+			long bytes = 0;
+			while (rs.next()){
+				List<String> record = new ArrayList<String>();
+				for (int i = 1; i <= numCol; ++i){
+					String value = rs.getString(i);
+					if (value != null){
+						bytes += value.length();
+					}//end if
+					record.add(value);
+				}//end for
+				result.add(record);
+			}//end while
+			rs.close();
+			this._metrics.record(sql, params, System.nanoTime() - start, result.size(), bytes, null);
+			return result;
+		}catch (SQLException e){
+			this._metrics.record(sql, params, System.nanoTime() - start, 0, 0, e);
+			this._conn.failed(sql, e);
+			throw e;
+		}//end try
+	}//end query
+
+	/**
+	 * Method to execute the statements of a batch with JDBC batching, so
+	 * each SQL string costs one round trip.
+	 *
+	 * @param batch the queued statements
+	 * @return the number of statements executed
+	 * @throws java.sql.SQLException when a statement failed
+	 */
+	public int batch(Batch batch) throws SQLException {
+		for (Map.Entry<String, List<Object[]>> entry : batch.statements()){
+			String sql = entry.getKey();
+			long start = System.nanoTime();
+			try{
+				PreparedStatement stmt = null;
+				for (Object[] params : entry.getValue()){
+					stmt = this._conn.prepare(sql, params);
+					stmt.addBatch();
+				}//end for
+				stmt.executeBatch();
+				//one execution per SQL string, with the rows it inserted
+				this._metrics.record(sql, null, System.nanoTime() - start, entry.getValue().size(), 0, null);
+				this._writes.add(sql);
+			}catch (SQLException e){
+				this._conn.failed(sql, e);
+				//the batch error only says which entry failed, the cause is chained
+				if (e instanceof BatchUpdateException && e.getNextException() != null){
+					e = e.getNextException();
+				}//end if
+				this._metrics.record(sql, null, System.nanoTime() - start, 0, 0, e);
+				throw e;
+			}//end try
+		}//end for
+		return batch.size();
+	}//end batch
+
+	List<String> getWrites(){
+		return this._writes;
+	}
+}
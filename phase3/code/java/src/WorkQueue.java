@@ -0,0 +1,91 @@
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This class hands out open service requests to mechanics from the
+ * Open_Request queue of create.sql.  A claim is one UPDATE whose subquery
+ * picks the first unclaimed request in priority order with FOR UPDATE SKIP
+ * LOCKED: requests being claimed by other sessions are skipped rather than
+ * waited for, so many mechanics claim at once without contention, and the
+ * lock plus the mid IS NULL recheck means no request is given out twice.
+ *
+ * Claims older than mechanicshop.queue.claimTimeout minutes are handed out
+ * again, in case a mechanic never closed the request.
+ *
+ */
+
+public class WorkQueue{
+	static final long CLAIM_TIMEOUT = Long.getLong("mechanicshop.queue.claimTimeout", 120L);
+	//ms between two sweeps of the expired claims
+	static final long SWEEP_INTERVAL = 60000L;
+
+	public static final String REFRESH = "SELECT refresh_open_requests()";
+
+	//ORDER BY of each priority, matching the partial indexes of Open_Request
+	public static final String OLDEST_FIRST = "O.date, O.rid";
+	public static final String HIGHEST_ODOMETER_FIRST = "O.odometer DESC, O.rid";
+
+	//the request is joined on its date too, so only its partition of Service_Request is read
+	static final String CLAIM = "WITH claimed AS (UPDATE Open_Request SET mid = ?, claimed_at = now() WHERE rid = "
+		+ "(SELECT O.rid FROM Open_Request O WHERE O.mid IS NULL ORDER BY %s LIMIT 1 FOR UPDATE SKIP LOCKED) RETURNING rid, date) "
+		+ "SELECT S.* FROM Service_Request S, claimed WHERE S.rid = claimed.rid AND S.date = claimed.date";
+	static final String RELEASE = "UPDATE Open_Request SET mid = NULL, claimed_at = NULL WHERE rid = ? AND mid = ?";
+	static final String EXPIRE = "UPDATE Open_Request SET mid = NULL, claimed_at = NULL WHERE mid IS NOT NULL AND claimed_at < now() - ? * INTERVAL '1 minute'";
+	static final String CLAIMED_BY = "SELECT S.* FROM Service_Request S, Open_Request O WHERE O.mid = ? AND S.rid = O.rid AND S.date = O.date ORDER BY O.claimed_at";
+
+	private final MechanicShop _esql;
+	private long _lastSweep = 0;
+
+	public WorkQueue(MechanicShop esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to assign the next unclaimed open request to a mechanic.
+	 *
+	 * @param mid the id of the mechanic
+	 * @param priority OLDEST_FIRST or HIGHEST_ODOMETER_FIRST
+	 * @return the request claimed, or null when none is left
+	 * @throws java.sql.SQLException when failed to claim
+	 */
+	public ServiceRequest claim(int mid, String priority) throws SQLException {
+		if (!priority.equals(OLDEST_FIRST) && !priority.equals(HIGHEST_ODOMETER_FIRST)){
+			throw new IllegalArgumentException("Unknown priority " + priority);
+		}//end if
+		expire();
+		List<ServiceRequest> claimed = this._esql.queryAs(String.format(CLAIM, priority), ServiceRequest.MAPPER, mid);
+		return claimed.isEmpty() ? null : claimed.get(0);
+	}
+
+	/**
+	 * Method to put a request claimed by a mechanic back in the queue.
+	 *
+	 * @return true if the mechanic held the request
+	 * @throws java.sql.SQLException when failed to release
+	 */
+	public boolean release(int rid, int mid) throws SQLException {
+		return this._esql.update(RELEASE, rid, mid) > 0;
+	}
+
+	/**
+	 * @return the open requests claimed by a mechanic, oldest claim first
+	 * @throws java.sql.SQLException when failed to read the queue
+	 */
+	public List<ServiceRequest> claimedBy(int mid) throws SQLException {
+		return this._esql.queryAs(CLAIMED_BY, ServiceRequest.MAPPER, mid);
+	}
+
+	/**
+	 * Method to release the expired claims, at most once per SWEEP_INTERVAL.
+	 */
+	private void expire() throws SQLException {
+		synchronized (this){
+			long now = System.currentTimeMillis();
+			if (CLAIM_TIMEOUT <= 0 || now - this._lastSweep < SWEEP_INTERVAL){
+				return;
+			}//end if
+			this._lastSweep = now;
+		}//end synchronized
+		this._esql.update(EXPIRE, CLAIM_TIMEOUT);
+	}
+}
@@ -4,6 +4,11 @@ DROP TABLE IF EXISTS Car CASCADE;--OK
 DROP TABLE IF EXISTS Owns CASCADE;--OK
 DROP TABLE IF EXISTS Service_Request CASCADE;--OK
 DROP TABLE IF EXISTS Closed_Request CASCADE;--OK
+DROP TABLE IF EXISTS Car_Request_Count CASCADE;
+DROP TABLE IF EXISTS Customer_Car_Count CASCADE;
+DROP TABLE IF EXISTS Customer_Bill CASCADE;
+DROP TABLE IF EXISTS Cheap_Repair CASCADE;
+DROP TABLE IF EXISTS Open_Request CASCADE;
 
 
 -------------
@@ -69,10 +74,10 @@ CREATE TABLE Service_Request
 	date DATE NOT NULL,
 	odometer _PINTEGER NOT NULL,
 	complain TEXT,
-	PRIMARY KEY (rid),
+	PRIMARY KEY (rid, date),
 	FOREIGN KEY (customer_id) REFERENCES Customer(id),
 	FOREIGN KEY (car_vin) REFERENCES Car(vin)
-);
+) PARTITION BY RANGE (date);
 
 CREATE TABLE Closed_Request
 (
@@ -82,10 +87,71 @@ CREATE TABLE Closed_Request
 	date DATE NOT NULL,
 	comment TEXT,
 	bill _PINTEGER NOT NULL,
-	PRIMARY KEY (wid),
-	FOREIGN KEY (rid) REFERENCES Service_Request(rid),
+	PRIMARY KEY (wid, date),
+	-- rid is checked by ClosedRequestRidCheck, see PARTITIONS
 	FOREIGN KEY (mid) REFERENCES Mechanic(id)
-);
+) PARTITION BY RANGE (date);
+
+----------------
+---PARTITIONS---
+----------------
+-- The request tables are partitioned by date: one partition per year of
+-- history from the first year of the loaded data, created with the load
+-- below, and one per month from the current year on, so the date-bounded
+-- reports of the Java front end (see DateRange) only read the partitions of
+-- their period, and inserts of new requests only touch the small current
+-- partition and its indexes.  Dates without a partition go to the default
+-- partitions.  The Java front end creates the coming months on startup (see
+-- PartitionManager).  A partitioned table needs the partition key in its
+-- primary key, hence (rid, date) and (wid, date), so the DBMS no longer keeps
+-- rid and wid unique: the app allocates them from sequences, and BulkLoader
+-- rejects files and loads with duplicates.
+
+-- Creates the missing partitions of both request tables covering
+-- [from_date, to_date), one per step of '1 month' or '1 year', and returns how
+-- many were created.  Ranges already covered are skipped, as are ranges with
+-- rows in a default partition, with a notice.
+CREATE OR REPLACE FUNCTION create_request_partitions(from_date DATE, to_date DATE, step INTERVAL)
+ RETURNS INTEGER AS
+ $BODY$
+ DECLARE
+   yearly BOOLEAN := step = INTERVAL '1 year';
+   lo DATE;
+   hi DATE;
+   parent TEXT;
+   name TEXT;
+   created INTEGER := 0;
+ BEGIN
+   IF step NOT IN (INTERVAL '1 year', INTERVAL '1 month') THEN
+     RAISE EXCEPTION 'Partition step must be 1 year or 1 month, not %', step;
+   END IF;
+   lo := date_trunc(CASE WHEN yearly THEN 'year' ELSE 'month' END, from_date)::date;
+   WHILE lo < to_date LOOP
+     hi := (lo + step)::date;
+     FOREACH parent IN ARRAY ARRAY['service_request', 'closed_request'] LOOP
+       name := parent || '_' || to_char(lo, CASE WHEN yearly THEN 'YYYY' ELSE 'YYYY_MM' END);
+       -- the range itself, the year of a month, or a month of a year exists
+       CONTINUE WHEN to_regclass(name) IS NOT NULL
+         OR to_regclass(parent || '_' || to_char(lo, 'YYYY')) IS NOT NULL
+         OR (yearly AND EXISTS (SELECT 1 FROM pg_class WHERE relname LIKE name || '\_%'));
+       BEGIN
+         EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)', name, parent, lo, hi);
+         created := created + 1;
+       EXCEPTION WHEN check_violation THEN
+         RAISE NOTICE '% has rows from % to %, % not created', parent || '_default', lo, hi, name;
+       END;
+     END LOOP;
+     lo := hi;
+   END LOOP;
+   RETURN created;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE TABLE service_request_default PARTITION OF Service_Request DEFAULT;
+CREATE TABLE closed_request_default PARTITION OF Closed_Request DEFAULT;
+SELECT create_request_partitions(date_trunc('year', current_date)::date,
+	(date_trunc('month', current_date) + INTERVAL '12 months')::date, INTERVAL '1 month');
 
 ----------------------------
 -- INSERT DATA STATEMENTS --
@@ -127,7 +193,13 @@ COPY Owns (
 FROM 'owns.csv'
 WITH DELIMITER ',';
 
-COPY Service_Request (
+-- The request tables are copied to staging tables first, so the yearly
+-- partitions start at the first year of the data: a lookup by rid alone
+-- probes every partition, and empty years would only add to each probe.
+CREATE TEMP TABLE Service_Request_Load (LIKE Service_Request);
+CREATE TEMP TABLE Closed_Request_Load (LIKE Closed_Request);
+
+COPY Service_Request_Load (
 	rid,
 	customer_id,
 	car_vin,
@@ -138,7 +210,7 @@ COPY Service_Request (
 FROM 'service_request.csv'
 WITH DELIMITER ',';
 
-COPY Closed_Request (
+COPY Closed_Request_Load (
 	wid,
 	rid,
 	mid,
@@ -147,4 +219,419 @@ COPY Closed_Request (
 	bill
 )
 FROM 'closed_request.csv'
-WITH DELIMITER ',';
\ No newline at end of file
+WITH DELIMITER ',';
+
+SELECT create_request_partitions(
+	LEAST((SELECT MIN(date) FROM Service_Request_Load), (SELECT MIN(date) FROM Closed_Request_Load),
+		date_trunc('year', current_date)::date),
+	date_trunc('year', current_date)::date, INTERVAL '1 year');
+INSERT INTO Service_Request SELECT * FROM Service_Request_Load;
+INSERT INTO Closed_Request SELECT * FROM Closed_Request_Load;
+DROP TABLE Service_Request_Load, Closed_Request_Load;
+
+-------------
+---INDEXES---
+-------------
+-- Secondary indexes for the lookups and joins of the Java front end.  They are
+-- built after the COPY so the load does not maintain them row by row.  Run
+-- QueryPlanAdvisor to check which menu queries still use sequential scans.
+
+-- InsertServiceRequest: customers by last name, id and fname read from the index
+CREATE INDEX customer_lname_idx ON Customer (lname, id, fname);
+-- InsertServiceRequest: cars of a customer; report 7: cars per customer
+CREATE INDEX owns_customer_idx ON Owns (customer_id, car_vin);
+-- InsertServiceRequest: requests of a customer's car
+CREATE INDEX service_request_customer_idx ON Service_Request (customer_id, car_vin);
+-- reports 8 and 9: requests per car
+CREATE INDEX service_request_car_idx ON Service_Request (car_vin, odometer);
+-- CloseServiceRequest: closed record of a mechanic and request
+CREATE INDEX closed_request_mid_rid_idx ON Closed_Request (mid, rid);
+-- report 10: bill of each request
+CREATE INDEX closed_request_rid_idx ON Closed_Request (rid, bill);
+-- report 6: cheap repairs only
+CREATE INDEX closed_request_bill_lt_100_idx ON Closed_Request (rid) WHERE bill < 100;
+-- report 8: old cars only
+CREATE INDEX car_before_1995_idx ON Car (vin) WHERE year < 1995;
+
+-- search options: words of complaints and closing comments.  Queries must use
+-- the same to_tsvector('english', ...) expression to be served by these.
+CREATE INDEX service_request_complain_fts_idx ON Service_Request USING GIN (to_tsvector('english', complain));
+CREATE INDEX closed_request_comment_fts_idx ON Closed_Request USING GIN (to_tsvector('english', comment));
+-- search options: customers by approximate last name, nearest first.  Needs
+-- the pg_trgm extension from the postgresql contrib package, created here by
+-- a user allowed to (a superuser before Postgres 13, the database owner
+-- since).  Without it option 13 and the similar name hints of option 4 only
+-- print that the search is unavailable.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX customer_lname_trgm_idx ON Customer USING GIST (rtrim(lname) gist_trgm_ops);
+
+ANALYZE;
+
+-----------------------
+---REPORT SUMMARIES---
+-----------------------
+-- Aggregates read by the reports of the Java front end (see ReportEngine)
+-- instead of joining and grouping the request tables on every run.  The
+-- triggers below keep them up to date row by row, adding the first row of a
+-- key with INSERT ... ON CONFLICT so concurrent first inserts do not collide
+-- and deleting the rows of keys left with nothing, and follow a request to a
+-- new customer.  An UPDATE that also moves the request to another partition
+-- runs as a delete and an insert, so its bills stay with the old customer
+-- until the next rebuild.  refresh_report_summaries() rebuilds them from
+-- scratch, e.g. after a bulk load with triggers disabled.  It locks the base
+-- tables in SHARE mode first, so no trigger writes a summary row between its
+-- DELETE and INSERT; writers wait for the rebuild to finish.
+
+-- report 6: closed requests billed less than 100
+CREATE TABLE Cheap_Repair
+(
+	wid INTEGER NOT NULL,
+	customer_id INTEGER NOT NULL,
+	date DATE NOT NULL,
+	comment TEXT,
+	bill _PINTEGER NOT NULL,
+	PRIMARY KEY (wid)
+);
+
+-- report 7: cars per customer
+CREATE TABLE Customer_Car_Count
+(
+	customer_id INTEGER NOT NULL,
+	cars INTEGER NOT NULL,
+	PRIMARY KEY (customer_id)
+);
+
+-- report 9: requests per car
+CREATE TABLE Car_Request_Count
+(
+	car_vin VARCHAR(16) NOT NULL,
+	requests INTEGER NOT NULL,
+	PRIMARY KEY (car_vin)
+);
+
+-- report 10: total bill per customer
+CREATE TABLE Customer_Bill
+(
+	customer_id INTEGER NOT NULL,
+	total_bill BIGINT NOT NULL,
+	PRIMARY KEY (customer_id)
+);
+
+CREATE INDEX customer_car_count_cars_idx ON Customer_Car_Count (cars);
+-- report 10, also the page key of its keyset pagination
+CREATE INDEX customer_bill_total_idx ON Customer_Bill (total_bill DESC, customer_id DESC);
+-- report 9 reads the top K cars off this index instead of sorting all cars
+CREATE INDEX car_request_count_requests_idx ON Car_Request_Count (requests DESC);
+
+CREATE OR REPLACE FUNCTION refresh_report_summaries()
+ RETURNS void AS
+ $BODY$
+ BEGIN
+   LOCK TABLE Owns, Service_Request, Closed_Request IN SHARE MODE;
+   DELETE FROM Cheap_Repair;
+   DELETE FROM Customer_Car_Count;
+   DELETE FROM Car_Request_Count;
+   DELETE FROM Customer_Bill;
+   INSERT INTO Cheap_Repair
+     SELECT CR.wid, S.customer_id, CR.date, CR.comment, CR.bill
+     FROM Closed_Request CR, Service_Request S WHERE S.rid = CR.rid AND CR.bill < 100;
+   INSERT INTO Customer_Car_Count
+     SELECT O.customer_id, COUNT(*) FROM Owns O GROUP BY O.customer_id;
+   INSERT INTO Car_Request_Count
+     SELECT S.car_vin, COUNT(*) FROM Service_Request S GROUP BY S.car_vin;
+   INSERT INTO Customer_Bill
+     SELECT S.customer_id, SUM(CR.bill) FROM Closed_Request CR, Service_Request S
+     WHERE S.rid = CR.rid GROUP BY S.customer_id;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION count_owns()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF TG_OP IN ('UPDATE', 'DELETE') THEN
+     UPDATE Customer_Car_Count SET cars = cars - 1 WHERE customer_id = OLD.customer_id;
+     DELETE FROM Customer_Car_Count WHERE customer_id = OLD.customer_id AND cars <= 0;
+   END IF;
+   IF TG_OP IN ('INSERT', 'UPDATE') THEN
+     INSERT INTO Customer_Car_Count VALUES (NEW.customer_id, 1)
+       ON CONFLICT (customer_id) DO UPDATE SET cars = Customer_Car_Count.cars + 1;
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION count_service_request()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF TG_OP IN ('UPDATE', 'DELETE') THEN
+     UPDATE Car_Request_Count SET requests = requests - 1 WHERE car_vin = OLD.car_vin;
+     DELETE FROM Car_Request_Count WHERE car_vin = OLD.car_vin AND requests <= 0;
+   END IF;
+   IF TG_OP IN ('INSERT', 'UPDATE') THEN
+     INSERT INTO Car_Request_Count VALUES (NEW.car_vin, 1)
+       ON CONFLICT (car_vin) DO UPDATE SET requests = Car_Request_Count.requests + 1;
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION sum_closed_request()
+ RETURNS "trigger" AS
+ $BODY$
+ DECLARE
+   owner INTEGER;
+ BEGIN
+   IF TG_OP IN ('UPDATE', 'DELETE') THEN
+     SELECT S.customer_id INTO owner FROM Service_Request S WHERE S.rid = OLD.rid AND S.date = request_date(OLD.rid);
+     UPDATE Customer_Bill SET total_bill = total_bill - OLD.bill WHERE customer_id = owner;
+     -- bills are positive, so no bill left means no closed request left
+     DELETE FROM Customer_Bill WHERE customer_id = owner AND total_bill <= 0;
+     DELETE FROM Cheap_Repair WHERE wid = OLD.wid;
+   END IF;
+   IF TG_OP IN ('INSERT', 'UPDATE') THEN
+     SELECT S.customer_id INTO owner FROM Service_Request S WHERE S.rid = NEW.rid AND S.date = request_date(NEW.rid);
+     INSERT INTO Customer_Bill VALUES (owner, NEW.bill)
+       ON CONFLICT (customer_id) DO UPDATE SET total_bill = Customer_Bill.total_bill + EXCLUDED.total_bill;
+     IF NEW.bill < 100 THEN
+       INSERT INTO Cheap_Repair VALUES (NEW.wid, owner, NEW.date, NEW.comment, NEW.bill);
+     END IF;
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+-- Moves the bills of a request's closures to its new customer.
+CREATE OR REPLACE FUNCTION move_service_request_bills()
+ RETURNS "trigger" AS
+ $BODY$
+ DECLARE
+   moved BIGINT;
+ BEGIN
+   SELECT SUM(CR.bill) INTO moved FROM Closed_Request CR WHERE CR.rid = NEW.rid;
+   IF moved IS NOT NULL THEN
+     UPDATE Customer_Bill SET total_bill = total_bill - moved WHERE customer_id = OLD.customer_id;
+     DELETE FROM Customer_Bill WHERE customer_id = OLD.customer_id AND total_bill <= 0;
+     INSERT INTO Customer_Bill VALUES (NEW.customer_id, moved)
+       ON CONFLICT (customer_id) DO UPDATE SET total_bill = Customer_Bill.total_bill + EXCLUDED.total_bill;
+     UPDATE Cheap_Repair SET customer_id = NEW.customer_id
+       WHERE wid IN (SELECT CR.wid FROM Closed_Request CR WHERE CR.rid = NEW.rid);
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+-- Closed_Request.rid cannot be a foreign key to the partitioned
+-- Service_Request, whose key is (rid, date), so both sides are checked here
+-- the way Postgres checks a foreign key: after the row is written, with the
+-- referenced request locked FOR KEY SHARE until the closure commits, so it
+-- cannot be deleted in between.  A request deleted first holds its row lock
+-- until it commits, so the closure waits and then fails.  BulkLoader turns
+-- these off with the other triggers and checks the loaded rows in one query.
+CREATE OR REPLACE FUNCTION check_closed_request_rid()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   PERFORM 1 FROM Service_Request S WHERE S.rid = NEW.rid AND S.date = request_date(NEW.rid) FOR KEY SHARE;
+   IF NOT FOUND THEN
+     RAISE EXCEPTION 'insert or update on table "closed_request" violates reference to "service_request"'
+       USING ERRCODE = 'foreign_key_violation', DETAIL = format('Key (rid)=(%s) is not present in table "service_request".', NEW.rid);
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+-- Deleting a closed request, or changing its rid, is rejected unless another
+-- row keeps the rid, e.g. when a new date moves the request to another
+-- partition, which deletes and inserts it.
+CREATE OR REPLACE FUNCTION check_service_request_closed()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF EXISTS (SELECT 1 FROM Closed_Request CR WHERE CR.rid = OLD.rid)
+     AND NOT EXISTS (SELECT 1 FROM Service_Request S WHERE S.rid = OLD.rid) THEN
+     RAISE EXCEPTION 'update or delete on table "service_request" violates reference from "closed_request"'
+       USING ERRCODE = 'foreign_key_violation', DETAIL = format('Key (rid)=(%s) is still referenced from table "closed_request".', OLD.rid);
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE TRIGGER ClosedRequestRidCheck
+ AFTER INSERT OR UPDATE OF rid
+ ON Closed_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE check_closed_request_rid();
+
+CREATE TRIGGER ServiceRequestClosedCheck
+ AFTER DELETE OR UPDATE OF rid
+ ON Service_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE check_service_request_closed();
+
+CREATE TRIGGER OwnsCountTrigger
+ AFTER INSERT OR UPDATE OR DELETE
+ ON Owns
+ FOR EACH ROW
+ EXECUTE PROCEDURE count_owns();
+
+CREATE TRIGGER ServiceRequestCountTrigger
+ AFTER INSERT OR UPDATE OR DELETE
+ ON Service_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE count_service_request();
+
+CREATE TRIGGER ClosedRequestSumTrigger
+ AFTER INSERT OR UPDATE OR DELETE
+ ON Closed_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE sum_closed_request();
+
+CREATE TRIGGER ServiceRequestOwnerTrigger
+ AFTER UPDATE OF customer_id
+ ON Service_Request
+ FOR EACH ROW
+ WHEN (OLD.customer_id IS DISTINCT FROM NEW.customer_id)
+ EXECUTE PROCEDURE move_service_request_bills();
+
+SELECT refresh_report_summaries();
+ANALYZE;
+
+----------------
+---WORK QUEUE---
+----------------
+-- Service requests not closed yet, the queue mechanics claim work from (see
+-- WorkQueue).  A claim sets mid; closing the request removes its row.  Claims
+-- lock candidate rows with FOR UPDATE SKIP LOCKED, so concurrent mechanics
+-- skip each other's candidates instead of waiting on them, and the partial
+-- indexes below only hold the unclaimed rows each priority reads.
+CREATE TABLE Open_Request
+(
+	rid INTEGER NOT NULL,
+	date DATE NOT NULL,
+	odometer INTEGER NOT NULL,
+	mid INTEGER,
+	claimed_at TIMESTAMP,
+	PRIMARY KEY (rid),
+	FOREIGN KEY (mid) REFERENCES Mechanic(id)
+);
+
+-- oldest request first
+CREATE INDEX open_request_oldest_idx ON Open_Request (date, rid) WHERE mid IS NULL;
+-- highest mileage first
+CREATE INDEX open_request_odometer_idx ON Open_Request (odometer DESC, rid) WHERE mid IS NULL;
+-- claims to expire
+CREATE INDEX open_request_claimed_idx ON Open_Request (claimed_at) WHERE mid IS NOT NULL;
+
+-- The date of a request, NULL when there is none, so a lookup by rid can go
+-- to the partition of the request with S.rid = key AND S.date =
+-- request_date(key) instead of probing every partition.  The requests not
+-- closed yet, which closing a request looks up, are read from Open_Request;
+-- only the others probe the partitions.
+CREATE OR REPLACE FUNCTION request_date(key INTEGER)
+ RETURNS DATE AS
+ $BODY$
+   SELECT COALESCE((SELECT O.date FROM Open_Request O WHERE O.rid = key),
+     (SELECT S.date FROM Service_Request S WHERE S.rid = key LIMIT 1));
+ $BODY$
+ LANGUAGE sql STABLE;
+
+-- Brings Open_Request in line with the request tables, e.g. after a bulk load
+-- with triggers disabled, keeping the claims of requests still open.
+CREATE OR REPLACE FUNCTION refresh_open_requests()
+ RETURNS void AS
+ $BODY$
+ BEGIN
+   DELETE FROM Open_Request O
+     WHERE NOT EXISTS (SELECT 1 FROM Service_Request S WHERE S.rid = O.rid)
+     OR EXISTS (SELECT 1 FROM Closed_Request CR WHERE CR.rid = O.rid);
+   INSERT INTO Open_Request (rid, date, odometer)
+     SELECT S.rid, S.date, S.odometer FROM Service_Request S
+     WHERE NOT EXISTS (SELECT 1 FROM Closed_Request CR WHERE CR.rid = S.rid)
+     ON CONFLICT DO NOTHING;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION queue_service_request()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF TG_OP = 'DELETE' THEN
+     DELETE FROM Open_Request WHERE rid = OLD.rid;
+   ELSIF TG_OP = 'UPDATE' THEN
+     UPDATE Open_Request SET rid = NEW.rid, date = NEW.date, odometer = NEW.odometer WHERE rid = OLD.rid;
+   ELSE
+     INSERT INTO Open_Request (rid, date, odometer) VALUES (NEW.rid, NEW.date, NEW.odometer);
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE OR REPLACE FUNCTION dequeue_closed_request()
+ RETURNS "trigger" AS
+ $BODY$
+ BEGIN
+   IF TG_OP IN ('UPDATE', 'DELETE') AND NOT EXISTS (SELECT 1 FROM Closed_Request CR WHERE CR.rid = OLD.rid) THEN
+     INSERT INTO Open_Request (rid, date, odometer)
+       SELECT S.rid, S.date, S.odometer FROM Service_Request S WHERE S.rid = OLD.rid
+       ON CONFLICT DO NOTHING;
+   END IF;
+   IF TG_OP IN ('INSERT', 'UPDATE') THEN
+     DELETE FROM Open_Request WHERE rid = NEW.rid;
+   END IF;
+   RETURN NULL;
+ END;
+ $BODY$
+ LANGUAGE plpgsql VOLATILE;
+
+CREATE TRIGGER ServiceRequestQueueTrigger
+ AFTER INSERT OR UPDATE OF rid, date, odometer OR DELETE
+ ON Service_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE queue_service_request();
+
+-- Triggers fire in name order: this one runs after ClosedRequestRidCheck and
+-- ClosedRequestSumTrigger, whose request_date() still finds the request in
+-- Open_Request.
+CREATE TRIGGER ClosedRequestUnqueueTrigger
+ AFTER INSERT OR UPDATE OR DELETE
+ ON Closed_Request
+ FOR EACH ROW
+ EXECUTE PROCEDURE dequeue_closed_request();
+
+SELECT refresh_open_requests();
+ANALYZE Open_Request;
+
+---------------
+---SEQUENCES---
+---------------
+-- Key generators for the Java front end.  Each nextval() reserves a block of
+-- 100 ids (see IdAllocator.BLOCK_SIZE), so INCREMENT BY must stay in sync.
+DROP SEQUENCE IF EXISTS customer_id_seq;
+DROP SEQUENCE IF EXISTS mechanic_id_seq;
+DROP SEQUENCE IF EXISTS owns_ownership_id_seq;
+DROP SEQUENCE IF EXISTS service_request_rid_seq;
+DROP SEQUENCE IF EXISTS closed_request_wid_seq;
+
+CREATE SEQUENCE customer_id_seq INCREMENT BY 100;
+CREATE SEQUENCE mechanic_id_seq INCREMENT BY 100;
+CREATE SEQUENCE owns_ownership_id_seq INCREMENT BY 100;
+CREATE SEQUENCE service_request_rid_seq INCREMENT BY 100;
+CREATE SEQUENCE closed_request_wid_seq INCREMENT BY 100;
+
+-- continue after the loaded data
+SELECT setval('customer_id_seq', (SELECT COALESCE(MAX(id), 0) + 1 FROM Customer), false);
+SELECT setval('mechanic_id_seq', (SELECT COALESCE(MAX(id), 0) + 1 FROM Mechanic), false);
+SELECT setval('owns_ownership_id_seq', (SELECT COALESCE(MAX(ownership_id), 0) + 1 FROM Owns), false);
+SELECT setval('service_request_rid_seq', (SELECT COALESCE(MAX(rid), 0) + 1 FROM Service_Request), false);
+SELECT setval('closed_request_wid_seq', (SELECT COALESCE(MAX(wid), 0) + 1 FROM Closed_Request), false);